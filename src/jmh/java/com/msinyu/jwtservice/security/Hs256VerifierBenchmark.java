@@ -0,0 +1,84 @@
+package com.msinyu.jwtservice.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HS256 token verification with the jjwt parser used before and with the {@link Hs256Verifier},
+ * for valid tokens and for tokens with a forged signature. The claims methods read the subject
+ * and times, as the validation endpoint does.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class Hs256VerifierBenchmark {
+
+    @Param({"valid", "forged"})
+    private String signature;
+
+    private SecretKeySpec key;
+    private String token;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        key = new SecretKeySpec("5f2b7c1e9a0d4c3b8e6f1a2d7c9b0e4f5a6d3c2b1e0f9a8d7c6b5a4f3e2d1c0b"
+                .getBytes(StandardCharsets.US_ASCII), SigningKeyCache.HMAC_SHA256);
+        token = Jwts.builder()
+                .setHeaderParam("kid", "1")
+                .setSubject("benchmark")
+                .setIssuedAt(new Date())
+                .setExpiration(new Date(System.currentTimeMillis() + 3600000L))
+                .signWith(SignatureAlgorithm.HS256, key)
+                .compact();
+        if ("forged".equals(signature)) {
+            char first = token.charAt(token.lastIndexOf('.') + 1);
+            token = token.substring(0, token.lastIndexOf('.') + 1) + (first == 'A' ? 'B' : 'A')
+                    + token.substring(token.lastIndexOf('.') + 2);
+        }
+    }
+
+    @Benchmark
+    public boolean jjwt() {
+        try {
+            Jwts.parser().setSigningKey(key).parseClaimsJws(token);
+            return true;
+        } catch (JwtException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public boolean verifier() {
+        return Hs256Verifier.verify(token, UnverifiedToken.parse(token), key, System.currentTimeMillis()) != null;
+    }
+
+    @Benchmark
+    public long jjwtClaims() {
+        try {
+            Claims claims = Jwts.parser().setSigningKey(key).parseClaimsJws(token).getBody();
+            return claims.getSubject().length() + claims.getIssuedAt().getTime() + claims.getExpiration().getTime();
+        } catch (JwtException e) {
+            return 0;
+        }
+    }
+
+    @Benchmark
+    public long verifierClaims() {
+        Claims claims = Hs256Verifier.verify(token, UnverifiedToken.parse(token), key, System.currentTimeMillis());
+        if (claims == null) {
+            return 0;
+        }
+        return claims.getSubject().length() + claims.getIssuedAt().getTime() + claims.getExpiration().getTime();
+    }
+}
@@ -0,0 +1,105 @@
+package com.msinyu.jwtservice.security;
+
+import com.msinyu.jwtservice.metrics.AuthMetrics;
+import com.msinyu.jwtservice.model.PasswordHistory;
+import com.msinyu.jwtservice.model.User;
+import com.msinyu.jwtservice.service.PasswordService;
+import com.msinyu.jwtservice.util.CompressionUtil;
+import com.msinyu.jwtservice.util.EncryptionUtil;
+import com.msinyu.jwtservice.util.MathUtil;
+import com.msinyu.jwtservice.util.PasswordVectorCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token generation and validation for users with one to five password histories, with the
+ * signing key served from the cache or derived on every call, from the stored key digest or
+ * from the password vectors of users without one. In ES256 mode the user key is not used, and
+ * validation is signature verification with the service key plus the revocation claim check.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class JwtUtilBenchmark {
+
+    @Param({"1", "2", "3", "4", "5"})
+    private int histories;
+
+    @Param({"hit", "miss"})
+    private String keyCache;
+
+    @Param({"digest", "vectors"})
+    private String keyMaterial;
+
+    @Param({"HS256", "ES256"})
+    private String algorithm;
+
+    private JwtUtil jwtUtil;
+    private SigningKeyCache signingKeyCache;
+    private User user;
+    private String token;
+    private boolean derive;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        AuthMetrics authMetrics = new AuthMetrics(new SimpleMeterRegistry());
+        EncryptionUtil encryptionUtil = new EncryptionUtil();
+        MathUtil mathUtil = new MathUtil();
+        ReflectionTestUtils.setField(mathUtil, "encryptionUtil", encryptionUtil);
+        PasswordVectorCodec codec = new PasswordVectorCodec();
+        ReflectionTestUtils.setField(codec, "mathUtil", mathUtil);
+        ReflectionTestUtils.setField(codec, "encryptionUtil", encryptionUtil);
+        ReflectionTestUtils.setField(codec, "compressionUtil", new CompressionUtil(16));
+        ReflectionTestUtils.setField(codec, "compressionEnabled", true);
+        ReflectionTestUtils.setField(codec, "authMetrics", authMetrics);
+
+        signingKeyCache = new SigningKeyCache(10000, 1800000, new SimpleMeterRegistry());
+        jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "serviceKey", "LvDU24MmZXWkNHhtqCVwixgJ1VcmzdheLTvPDBxPMN0=");
+        ReflectionTestUtils.setField(jwtUtil, "tokenExpiration", 3600000L);
+        ReflectionTestUtils.setField(jwtUtil, "encryptionUtil", encryptionUtil);
+        ReflectionTestUtils.setField(jwtUtil, "signingKeyCache", signingKeyCache);
+        ReflectionTestUtils.setField(jwtUtil, "authMetrics", authMetrics);
+        ReflectionTestUtils.setField(jwtUtil, "serviceKeyPairs",
+                new ServiceKeyPairs(algorithm, "", "PKCS12", "", "signing-key", 3600000L));
+
+        user = new User();
+        user.setId(1L);
+        user.setUsername("benchmark");
+        user.setRandomHash("5f2b7c1e9a0d4c3b8e6f1a2d7c9b0e4f5a6d3c2b1e0f9a8d7c6b5a4f3e2d1c0b");
+        for (int i = 0; i < histories; i++) {
+            String passwordHash = "$2a$12$R9h/cIPz0gi.URNNX3kh2OPST9/PgBkqquzi.Ss7KIUgO2t0jWMUW" + i;
+            PasswordHistory history = new PasswordHistory();
+            history.setPasswordHash(passwordHash);
+            history.setPasswordVector(codec.encode(passwordHash));
+            user.addPasswordHistory(history);
+        }
+        if ("digest".equals(keyMaterial)) {
+            user.setKeyDigest(new PasswordService().keyDigest(user));
+        }
+        token = jwtUtil.generateToken(user);
+        derive = "miss".equals(keyCache);
+    }
+
+    @Benchmark
+    public String generateToken() {
+        if (derive) {
+            signingKeyCache.invalidate(user.getId());
+        }
+        return jwtUtil.generateToken(user);
+    }
+
+    @Benchmark
+    public boolean validateToken() {
+        if (derive) {
+            signingKeyCache.invalidate(user.getId());
+        }
+        return jwtUtil.validateToken(token, user);
+    }
+}
@@ -0,0 +1,56 @@
+package com.msinyu.jwtservice.service;
+
+import com.msinyu.jwtservice.metrics.AuthMetrics;
+import com.msinyu.jwtservice.util.CompressionUtil;
+import com.msinyu.jwtservice.util.EncryptionUtil;
+import com.msinyu.jwtservice.util.MathUtil;
+import com.msinyu.jwtservice.util.PasswordVectorCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Password vector generation as done on registration and password change, with and without
+ * the compression stage.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PasswordServiceBenchmark {
+
+    @Param({"true", "false"})
+    private boolean compression;
+
+    private final String passwordHash = "$2a$12$R9h/cIPz0gi.URNNX3kh2OPST9/PgBkqquzi.Ss7KIUgO2t0jWMUW";
+
+    private PasswordService passwordService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        AuthMetrics authMetrics = new AuthMetrics(new SimpleMeterRegistry());
+        EncryptionUtil encryptionUtil = new EncryptionUtil();
+        MathUtil mathUtil = new MathUtil();
+        ReflectionTestUtils.setField(mathUtil, "encryptionUtil", encryptionUtil);
+
+        PasswordVectorCodec codec = new PasswordVectorCodec();
+        ReflectionTestUtils.setField(codec, "mathUtil", mathUtil);
+        ReflectionTestUtils.setField(codec, "encryptionUtil", encryptionUtil);
+        ReflectionTestUtils.setField(codec, "compressionUtil", new CompressionUtil(16));
+        ReflectionTestUtils.setField(codec, "compressionEnabled", compression);
+        ReflectionTestUtils.setField(codec, "authMetrics", authMetrics);
+
+        passwordService = new PasswordService();
+        ReflectionTestUtils.setField(passwordService, "passwordVectorCodec", codec);
+        ReflectionTestUtils.setField(passwordService, "authMetrics", authMetrics);
+    }
+
+    @Benchmark
+    public String generatePasswordVector() {
+        return passwordService.generatePasswordVector(passwordHash).getValue();
+    }
+}
@@ -0,0 +1,109 @@
+package com.msinyu.jwtservice.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares AES-GCM encryption with a new Cipher and SecureRandom per call, as EncryptionUtil
+ * used to do, against the pooled cipher and counter IVs, for String and ByteBuffer callers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EncryptionUtilBenchmark {
+
+    /**
+     * Packed password vector and legacy '0'/'1' matrix sizes.
+     */
+    @Param({"2036", "16256"})
+    private int size;
+
+    private EncryptionUtil encryptionUtil;
+    private SecretKey secretKey;
+    private byte[] plaintext;
+    private String ciphertext;
+    private ByteBuffer plaintextBuffer;
+    private ByteBuffer ciphertextBuffer;
+    private ByteBuffer outBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        encryptionUtil = new EncryptionUtil();
+        java.lang.reflect.Field field = EncryptionUtil.class.getDeclaredField("secretKey");
+        field.setAccessible(true);
+        secretKey = (SecretKey) field.get(encryptionUtil);
+
+        plaintext = new byte[size];
+        new SecureRandom().nextBytes(plaintext);
+        ciphertext = encryptionUtil.encrypt(plaintext, 0, plaintext.length);
+
+        plaintextBuffer = ByteBuffer.allocateDirect(size);
+        plaintextBuffer.put(plaintext).flip();
+        ciphertextBuffer = ByteBuffer.allocateDirect(encryptionUtil.encryptedLength(size));
+        encryptionUtil.encrypt(plaintextBuffer, ciphertextBuffer);
+        ciphertextBuffer.flip();
+        outBuffer = ByteBuffer.allocateDirect(encryptionUtil.encryptedLength(size));
+    }
+
+    @Benchmark
+    public String encryptLegacy() throws Exception {
+        byte[] iv = new byte[12];
+        SecureRandom random = new SecureRandom();
+        random.nextBytes(iv);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(128, iv));
+        byte[] encrypted = cipher.doFinal(plaintext);
+
+        byte[] encryptedWithIv = new byte[12 + encrypted.length];
+        System.arraycopy(iv, 0, encryptedWithIv, 0, 12);
+        System.arraycopy(encrypted, 0, encryptedWithIv, 12, encrypted.length);
+        return Base64.getEncoder().encodeToString(encryptedWithIv);
+    }
+
+    @Benchmark
+    public String encrypt() throws Exception {
+        return encryptionUtil.encrypt(plaintext, 0, plaintext.length);
+    }
+
+    @Benchmark
+    public int encryptByteBuffer() throws Exception {
+        plaintextBuffer.rewind();
+        outBuffer.clear();
+        return encryptionUtil.encrypt(plaintextBuffer, outBuffer);
+    }
+
+    @Benchmark
+    public byte[] decryptLegacy() throws Exception {
+        byte[] decoded = Base64.getDecoder().decode(ciphertext);
+        byte[] iv = Arrays.copyOfRange(decoded, 0, 12);
+        byte[] encrypted = Arrays.copyOfRange(decoded, 12, decoded.length);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(128, iv));
+        return cipher.doFinal(encrypted);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        return encryptionUtil.decryptBytes(ciphertext);
+    }
+
+    @Benchmark
+    public int decryptByteBuffer() throws Exception {
+        ciphertextBuffer.rewind();
+        outBuffer.clear();
+        return encryptionUtil.decrypt(ciphertextBuffer, outBuffer);
+    }
+}
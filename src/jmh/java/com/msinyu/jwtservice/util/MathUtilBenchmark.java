@@ -0,0 +1,84 @@
+package com.msinyu.jwtservice.util;
+
+import com.msinyu.jwtservice.util.secure.SecureMatrix;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each stage of the staged password vector pipeline on its own, the staged pipeline end to end,
+ * and the fused single-pass encoders that replace it: the '0'/'1' reference from the test sources
+ * and the packed encoder used for stored vectors.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MathUtilBenchmark {
+
+    private final String passwordHash = "$2a$12$R9h/cIPz0gi.URNNX3kh2OPST9/PgBkqquzi.Ss7KIUgO2t0jWMUW";
+
+    private MathUtil mathUtil;
+    private byte[] passwordHashBytes;
+    private byte[] chars;
+    private byte[] packed;
+    private SecureMatrix secureMatrix;
+    private SecureMatrix transformedMatrix;
+    private SecureMatrix derivativeMatrix;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mathUtil = new MathUtil();
+        ReflectionTestUtils.setField(mathUtil, "encryptionUtil", new EncryptionUtil());
+
+        passwordHashBytes = passwordHash.getBytes();
+        chars = new byte[SignMatrixReference.LENGTH];
+        packed = new byte[MathUtil.PACKED_SIGN_MATRIX_LENGTH];
+        secureMatrix = mathUtil.generateSecureMatrix(passwordHash);
+        transformedMatrix = mathUtil.nonLinearTransform(secureMatrix);
+        derivativeMatrix = mathUtil.calculateDerivative(transformedMatrix);
+    }
+
+    @Benchmark
+    public SecureMatrix generateSecureMatrix() throws Exception {
+        return mathUtil.generateSecureMatrix(passwordHash);
+    }
+
+    @Benchmark
+    public SecureMatrix nonLinearTransform() {
+        return mathUtil.nonLinearTransform(secureMatrix);
+    }
+
+    @Benchmark
+    public SecureMatrix calculateDerivative() {
+        return mathUtil.calculateDerivative(transformedMatrix);
+    }
+
+    @Benchmark
+    public String matrixToBinaryArray() throws Exception {
+        return mathUtil.matrixToBinaryArray(derivativeMatrix);
+    }
+
+    @Benchmark
+    public String stagedPipeline() throws Exception {
+        SecureMatrix matrix = mathUtil.generateSecureMatrix(passwordHash);
+        SecureMatrix transformed = mathUtil.nonLinearTransform(matrix);
+        SecureMatrix derivative = mathUtil.calculateDerivative(transformed);
+        return mathUtil.matrixToBinaryArray(derivative);
+    }
+
+    @Benchmark
+    public byte[] writeSignMatrix() {
+        SignMatrixReference.write(passwordHashBytes, chars);
+        return chars;
+    }
+
+    @Benchmark
+    public byte[] writePackedSignMatrix() {
+        mathUtil.writePackedSignMatrix(passwordHashBytes, packed, 0);
+        return packed;
+    }
+}
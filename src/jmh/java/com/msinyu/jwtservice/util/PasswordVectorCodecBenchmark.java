@@ -0,0 +1,86 @@
+package com.msinyu.jwtservice.util;
+
+import com.msinyu.jwtservice.metrics.AuthMetrics;
+import com.msinyu.jwtservice.util.secure.SecureMatrix;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Bytes stored and CPU per password vector for the legacy format and the v2 format with and
+ * without the compression stage. The stored size is printed once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PasswordVectorCodecBenchmark {
+
+    @Param({"legacy", "v2-raw", "v2-deflate"})
+    private String format;
+
+    private final String passwordHash = "$2a$12$R9h/cIPz0gi.URNNX3kh2OPST9/PgBkqquzi.Ss7KIUgO2t0jWMUW";
+
+    private MathUtil mathUtil;
+    private PasswordVectorCodec codec;
+    private String stored;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        AuthMetrics authMetrics = new AuthMetrics(new SimpleMeterRegistry());
+        EncryptionUtil encryptionUtil = new EncryptionUtil();
+        mathUtil = new MathUtil();
+        ReflectionTestUtils.setField(mathUtil, "encryptionUtil", encryptionUtil);
+
+        codec = new PasswordVectorCodec();
+        ReflectionTestUtils.setField(codec, "mathUtil", mathUtil);
+        ReflectionTestUtils.setField(codec, "encryptionUtil", encryptionUtil);
+        ReflectionTestUtils.setField(codec, "compressionUtil", new CompressionUtil(16));
+        ReflectionTestUtils.setField(codec, "compressionEnabled", "v2-deflate".equals(format));
+        ReflectionTestUtils.setField(codec, "authMetrics", authMetrics);
+
+        stored = encode();
+        System.out.println();
+        System.out.println("Stored bytes per vector (" + format + "): " + stored.length());
+    }
+
+    @Benchmark
+    public String encode() throws Exception {
+        if ("legacy".equals(format)) {
+            return legacyEncode();
+        }
+        return codec.encode(passwordHash);
+    }
+
+    @Benchmark
+    public byte[] decode() throws Exception {
+        return codec.decode(stored);
+    }
+
+    /**
+     * The vector generation as it was before the v2 format: staged matrices, '0'/'1' rows and a
+     * Deflate of the ciphertext into a zero padded buffer.
+     */
+    private String legacyEncode() throws Exception {
+        SecureMatrix secureMatrix = mathUtil.generateSecureMatrix(passwordHash);
+        SecureMatrix transformedMatrix = mathUtil.nonLinearTransform(secureMatrix);
+        SecureMatrix derivativeMatrix = mathUtil.calculateDerivative(transformedMatrix);
+        String encryptedBinary = mathUtil.matrixToBinaryArray(derivativeMatrix);
+
+        byte[] input = encryptedBinary.getBytes(StandardCharsets.UTF_8);
+        byte[] output = new byte[input.length];
+        Deflater deflater = new Deflater();
+        deflater.setInput(input);
+        deflater.finish();
+        deflater.deflate(output);
+        deflater.end();
+        return Base64.getEncoder().encodeToString(output);
+    }
+}
@@ -0,0 +1,59 @@
+package com.msinyu.jwtservice.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each VectorUtil operation on a vector derived from a BCrypt hash.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class VectorUtilBenchmark {
+
+    private final String passwordHash = "$2a$12$R9h/cIPz0gi.URNNX3kh2OPST9/PgBkqquzi.Ss7KIUgO2t0jWMUW";
+
+    private VectorUtil vectorUtil;
+    private double[] vector;
+    private double[] transformed;
+    private double[] derivative;
+    private byte[] binary;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        vectorUtil = new VectorUtil();
+        vector = vectorUtil.hashToVector(passwordHash);
+        transformed = vectorUtil.nonLinearTransform(vector);
+        derivative = vectorUtil.calculateDerivative(transformed);
+        binary = vectorUtil.toBinaryArray(derivative);
+    }
+
+    @Benchmark
+    public double[] hashToVector() {
+        return vectorUtil.hashToVector(passwordHash);
+    }
+
+    @Benchmark
+    public double[] nonLinearTransform() {
+        return vectorUtil.nonLinearTransform(vector);
+    }
+
+    @Benchmark
+    public double[] calculateDerivative() {
+        return vectorUtil.calculateDerivative(transformed);
+    }
+
+    @Benchmark
+    public byte[] toBinaryArray() {
+        return vectorUtil.toBinaryArray(derivative);
+    }
+
+    @Benchmark
+    public String encodeBase64() {
+        return vectorUtil.encodeBase64(binary);
+    }
+}
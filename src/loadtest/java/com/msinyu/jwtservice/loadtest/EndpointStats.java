@@ -0,0 +1,74 @@
+package com.msinyu.jwtservice.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencies and response codes of one endpoint, recorded by a single worker thread and merged
+ * once the run is over.
+ */
+class EndpointStats {
+
+    /**
+     * Highest latency the histogram tracks, one minute in microseconds.
+     */
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final Histogram histogram = new Histogram(MAX_LATENCY_MICROS, 3);
+    private final Map<String, Long> statuses = new TreeMap<>();
+    private long failures;
+
+    /**
+     * Records a completed request.
+     *
+     * @param latencyNanos Latency, measured from the intended start time when the rate is fixed.
+     * @param status       HTTP status, or 0 if the request failed without a response.
+     */
+    void record(long latencyNanos, int status) {
+        histogram.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), MAX_LATENCY_MICROS));
+        statuses.merge(status == 0 ? "error" : String.valueOf(status), 1L, Long::sum);
+        if (status == 0 || status >= 500) {
+            failures++;
+        }
+    }
+
+    /**
+     * Adds the recordings of another worker.
+     *
+     * @param other Stats to add.
+     */
+    void add(EndpointStats other) {
+        histogram.add(other.histogram);
+        other.statuses.forEach((status, count) -> statuses.merge(status, count, Long::sum));
+        failures += other.failures;
+    }
+
+    /**
+     * Summarizes the recordings for the JSON report.
+     *
+     * @param seconds Length of the measurement window.
+     * @return Report entry.
+     */
+    Map<String, Object> toReport(double seconds) {
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("min", histogram.getMinValue());
+        latency.put("mean", Math.round(histogram.getMean()));
+        latency.put("p50", histogram.getValueAtPercentile(50));
+        latency.put("p90", histogram.getValueAtPercentile(90));
+        latency.put("p99", histogram.getValueAtPercentile(99));
+        latency.put("p999", histogram.getValueAtPercentile(99.9));
+        latency.put("max", histogram.getMaxValue());
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("requests", histogram.getTotalCount());
+        report.put("failures", failures);
+        report.put("throughput", Math.round(histogram.getTotalCount() / seconds * 10) / 10.0);
+        report.put("statuses", statuses);
+        report.put("latencyMicros", latency);
+        return report;
+    }
+}
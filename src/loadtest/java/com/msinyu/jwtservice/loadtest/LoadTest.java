@@ -0,0 +1,379 @@
+package com.msinyu.jwtservice.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.msinyu.jwtservice.JwtServiceApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mixed register, login and change-password load generator.
+ * <p>
+ * Unless a target URL is given, the service is started in-process with the {@code test} profile
+ * and its embedded H2 database. Every worker seeds its own users and is the only one to log in
+ * or change passwords for them, so operations never race each other. With a fixed rate,
+ * latencies are measured from each request's intended start time so a stalled server is not
+ * hidden by the generator slowing down with it.
+ * <p>
+ * Options are passed as {@code --loadtest.<name>=<value>}; any other {@code --} option is handed
+ * to the embedded service, e.g. {@code --password.bcrypt.cost=10}.
+ */
+public class LoadTest {
+
+    enum Operation {
+        REGISTER("register"),
+        LOGIN("login"),
+        CHANGE_PASSWORD("change-password");
+
+        private final String key;
+
+        Operation(String key) {
+            this.key = key;
+        }
+    }
+
+    private final Map<String, String> options = new LinkedHashMap<>();
+    private final AtomicLong userSequence = new AtomicLong();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final String runId = Long.toString(System.currentTimeMillis() % 60_466_176L, 36);
+
+    private HttpClient httpClient;
+    private String target;
+    private String serverThreads = "unknown";
+    private int concurrency;
+    private int usersPerWorker;
+    private double rate;
+    private long warmupNanos;
+    private long durationNanos;
+    private Operation[] mix;
+    private long seed;
+    private volatile long startNanos;
+
+    public static void main(String[] args) throws Exception {
+        new LoadTest(args).run(args);
+    }
+
+    private LoadTest(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--loadtest.") && arg.contains("=")) {
+                int separator = arg.indexOf('=');
+                options.put(arg.substring("--loadtest.".length(), separator), arg.substring(separator + 1));
+            }
+        }
+        target = option("target", "");
+        concurrency = Integer.parseInt(option("concurrency", "16"));
+        usersPerWorker = Integer.parseInt(option("users-per-worker", "4"));
+        rate = Double.parseDouble(option("rate", "0"));
+        warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("warmup", "10")));
+        durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("duration", "60")));
+        mix = parseMix(option("mix", "register:1,login:8,change-password:1"));
+        seed = Long.parseLong(option("seed", "42"));
+    }
+
+    /**
+     * Reads an option from the command line, then from system properties.
+     *
+     * @param name         Option name without the {@code loadtest.} prefix.
+     * @param defaultValue Value used when the option is not set.
+     * @return Option value.
+     */
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, System.getProperty("loadtest." + name, defaultValue));
+    }
+
+    /**
+     * Expands a ratio such as {@code register:1,login:8} into a table of operations to draw from.
+     *
+     * @param value Comma separated operation:weight pairs.
+     * @return Operations, each repeated by its weight.
+     */
+    private static Operation[] parseMix(String value) {
+        List<Operation> table = new ArrayList<>();
+        for (String entry : value.split(",")) {
+            String[] parts = entry.trim().split(":");
+            Operation operation = null;
+            for (Operation candidate : Operation.values()) {
+                if (candidate.key.equals(parts[0])) {
+                    operation = candidate;
+                }
+            }
+            if (operation == null || parts.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry: " + entry);
+            }
+            for (int i = Integer.parseInt(parts[1]); i > 0; i--) {
+                table.add(operation);
+            }
+        }
+        if (table.isEmpty()) {
+            throw new IllegalArgumentException("Mix has no operations: " + value);
+        }
+        return table.toArray(new Operation[0]);
+    }
+
+    /**
+     * Starts the service if needed, runs the workload and writes the report.
+     *
+     * @param args Command line arguments, also passed to the embedded service.
+     * @throws Exception If the run fails.
+     */
+    private void run(String[] args) throws Exception {
+        ConfigurableApplicationContext application = null;
+        if (target.isEmpty()) {
+            application = new SpringApplicationBuilder(JwtServiceApplication.class)
+                    .profiles("test")
+                    .properties("server.port=0",
+                            "logging.level.org.springframework=WARN",
+                            "logging.level.com.msinyu.jwtservice=WARN")
+                    .run(args);
+            target = "http://localhost:" + application.getEnvironment().getProperty("local.server.port");
+            serverThreads = application.getEnvironment().getProperty("spring.threads.virtual.enabled", Boolean.class, false)
+                    ? "virtual" : "platform";
+        }
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        try {
+            CountDownLatch seeded = new CountDownLatch(concurrency);
+            List<Future<Map<Operation, EndpointStats>>> results = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                results.add(workers.submit(new Worker(i, seeded)));
+            }
+            System.out.printf("Seeding %d users against %s%n", concurrency * usersPerWorker, target);
+            seeded.await();
+            startNanos = System.nanoTime();
+            started.countDown();
+
+            Map<Operation, EndpointStats> merged = new EnumMap<>(Operation.class);
+            for (Future<Map<Operation, EndpointStats>> result : results) {
+                result.get().forEach((operation, stats) ->
+                        merged.computeIfAbsent(operation, o -> new EndpointStats()).add(stats));
+            }
+            writeReport(merged);
+        } finally {
+            workers.shutdownNow();
+            if (application != null) {
+                application.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the JSON report to the configured file and to standard output.
+     *
+     * @param stats Merged stats per operation.
+     * @throws Exception If the report cannot be written.
+     */
+    private void writeReport(Map<Operation, EndpointStats> stats) throws Exception {
+        double seconds = durationNanos / 1e9;
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        EndpointStats total = new EndpointStats();
+        stats.forEach((operation, endpointStats) -> {
+            endpoints.put(operation.key, endpointStats.toReport(seconds));
+            total.add(endpointStats);
+        });
+
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("target", target);
+        config.put("serverThreads", serverThreads);
+        config.put("concurrency", concurrency);
+        config.put("usersPerWorker", usersPerWorker);
+        config.put("rate", rate);
+        config.put("mix", option("mix", "register:1,login:8,change-password:1"));
+        config.put("warmupSeconds", TimeUnit.NANOSECONDS.toSeconds(warmupNanos));
+        config.put("durationSeconds", TimeUnit.NANOSECONDS.toSeconds(durationNanos));
+        config.put("seed", seed);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("config", config);
+        report.put("total", total.toReport(seconds));
+        report.put("endpoints", endpoints);
+
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        File file = new File(option("report", "target/loadtest-report.json"));
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        objectMapper.writeValue(file, report);
+        System.out.println(objectMapper.writeValueAsString(report));
+        System.out.println("Report written to " + file.getAbsolutePath());
+    }
+
+    /**
+     * A user seeded by a worker, with its current password.
+     */
+    private static final class Account {
+        private final String username;
+        private String password;
+        private int changes;
+
+        private Account(String username, String password) {
+            this.username = username;
+            this.password = password;
+        }
+    }
+
+    /**
+     * Drives one connection's worth of load and records its own stats.
+     */
+    private final class Worker implements Callable<Map<Operation, EndpointStats>> {
+
+        private final Random random;
+        private final CountDownLatch seeded;
+        private final List<Account> accounts = new ArrayList<>();
+        private final Map<Operation, EndpointStats> stats = new EnumMap<>(Operation.class);
+
+        private Worker(int index, CountDownLatch seeded) {
+            this.random = new Random(seed + index);
+            this.seeded = seeded;
+        }
+
+        @Override
+        public Map<Operation, EndpointStats> call() throws Exception {
+            try {
+                for (int i = 0; i < usersPerWorker; i++) {
+                    Account account = newAccount();
+                    if (register(account) == 201) {
+                        accounts.add(account);
+                    }
+                }
+            } finally {
+                seeded.countDown();
+            }
+            started.await();
+
+            long measureFrom = startNanos + warmupNanos;
+            long end = measureFrom + durationNanos;
+            long interval = rate > 0 ? (long) (1e9 * concurrency / rate) : 0;
+            long intended = startNanos + (interval > 0 ? random.nextInt((int) Math.min(interval, Integer.MAX_VALUE)) : 0);
+            while (!Thread.currentThread().isInterrupted()) {
+                long now = System.nanoTime();
+                if (interval > 0) {
+                    if (intended > now) {
+                        LockSupport.parkNanos(intended - now);
+                    }
+                } else {
+                    intended = now;
+                }
+                if (intended >= end) {
+                    break;
+                }
+
+                Operation operation = mix[random.nextInt(mix.length)];
+                int status = execute(operation);
+                if (intended >= measureFrom) {
+                    stats.computeIfAbsent(operation, o -> new EndpointStats()).record(System.nanoTime() - intended, status);
+                }
+                intended += interval;
+            }
+            return stats;
+        }
+
+        /**
+         * Runs one operation; login and change-password fall back to registration until the worker has users.
+         *
+         * @param operation Operation to run.
+         * @return HTTP status, or 0 if the request failed.
+         */
+        private int execute(Operation operation) {
+            if (operation == Operation.REGISTER || accounts.isEmpty()) {
+                Account account = newAccount();
+                int status = register(account);
+                if (status == 201) {
+                    accounts.add(account);
+                }
+                return status;
+            }
+            Account account = accounts.get(random.nextInt(accounts.size()));
+            if (operation == Operation.LOGIN) {
+                return send(HttpRequest.newBuilder(URI.create(target + "/api/auth/login"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(credentials(account))));
+            }
+            String newPassword = "LoadTest-" + account.username + "-" + (++account.changes);
+            int status = send(HttpRequest.newBuilder(URI.create(target + "/api/auth/change-password"
+                            + "?username=" + URLEncoder.encode(account.username, StandardCharsets.UTF_8)
+                            + "&newPassword=" + URLEncoder.encode(newPassword, StandardCharsets.UTF_8)))
+                    .POST(HttpRequest.BodyPublishers.noBody()));
+            if (status == 200) {
+                account.password = newPassword;
+            }
+            return status;
+        }
+
+        /**
+         * Creates an account with a username unique to this run.
+         *
+         * @return New, not yet registered account.
+         */
+        private Account newAccount() {
+            String username = "lt" + runId + Long.toString(userSequence.incrementAndGet(), 36);
+            return new Account(username, "LoadTest-" + username + "-0");
+        }
+
+        /**
+         * Registers an account.
+         *
+         * @param account Account to register.
+         * @return HTTP status, or 0 if the request failed.
+         */
+        private int register(Account account) {
+            return send(HttpRequest.newBuilder(URI.create(target + "/api/auth/register"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(credentials(account))));
+        }
+
+        /**
+         * Builds the JSON body of register and login requests.
+         *
+         * @param account Account whose credentials are sent.
+         * @return Request body.
+         */
+        private String credentials(Account account) {
+            return "{\"username\":\"" + account.username + "\",\"password\":\"" + account.password + "\"}";
+        }
+
+        /**
+         * Sends a request and discards the body.
+         *
+         * @param request Request to send.
+         * @return HTTP status, or 0 if the request failed.
+         */
+        private int send(HttpRequest.Builder request) {
+            try {
+                return httpClient.send(request.timeout(Duration.ofSeconds(60)).build(),
+                        HttpResponse.BodyHandlers.discarding()).statusCode();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0;
+            } catch (Exception e) {
+                return 0;
+            }
+        }
+    }
+}
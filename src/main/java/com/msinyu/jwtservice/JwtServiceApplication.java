@@ -3,12 +3,14 @@ package com.msinyu.jwtservice;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Entry point for the JWT Service Application.
  */
 @SpringBootApplication
 @EnableJpaRepositories(basePackages = "com.msinyu.jwtservice.repository")
+@EnableScheduling
 public class JwtServiceApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,117 @@
+package com.msinyu.jwtservice.config;
+
+import com.msinyu.jwtservice.exception.PoolSaturatedException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.task.TaskExecutorBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dedicated executors for CPU-bound work that must not run on servlet threads unbounded.
+ */
+@Configuration
+public class ExecutorConfig {
+
+    /**
+     * Keeps Spring Boot's general purpose executor (used for MVC async requests), which is
+     * otherwise backed off as soon as any other executor bean is defined.
+     *
+     * @param builder Auto-configured executor builder.
+     * @return Application task executor.
+     */
+    @Lazy
+    @Bean(name = {"applicationTaskExecutor", "taskExecutor"})
+    @ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "false", matchIfMissing = true)
+    public ThreadPoolTaskExecutor applicationTaskExecutor(TaskExecutorBuilder builder) {
+        return builder.build();
+    }
+
+    /**
+     * Runs the stages chained to password hashing futures on the hashing thread that completed
+     * them. See {@link VirtualThreadConfig} for the virtual thread mode.
+     *
+     * @return Executor running tasks on the calling thread.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "false", matchIfMissing = true)
+    public Executor passwordContinuationExecutor() {
+        return Runnable::run;
+    }
+
+    /**
+     * Bounded pool for verifying token signatures of batch validation requests.
+     * When the queue is full the submitting request thread verifies the token itself,
+     * which throttles producers instead of failing the batch.
+     *
+     * @param poolSize      Number of worker threads; 0 means one per available processor.
+     * @param queueCapacity Maximum number of queued verifications.
+     * @return Token verification executor.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor tokenVerificationExecutor(
+            @Value("${jwt.validation.batch.pool-size}") int poolSize,
+            @Value("${jwt.validation.batch.queue-capacity}") int queueCapacity) {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("token-verify-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+
+    /**
+     * Bounded pool running BCrypt hashing and verification off the servlet threads.
+     * Submissions beyond the queue capacity are rejected so that bursts are shed with
+     * 503 responses instead of piling up behind CPU-bound work; rejections throw a shared
+     * exception without a stack trace.
+     *
+     * @param poolSize      Number of worker threads; 0 means one per available processor.
+     * @param queueCapacity Maximum number of queued hashing tasks.
+     * @param meterRegistry Registry for queue depth and wait time metrics.
+     * @return Password hashing executor.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor passwordHashingExecutor(
+            @Value("${password.hashing.pool-size}") int poolSize,
+            @Value("${password.hashing.queue-capacity}") int queueCapacity,
+            MeterRegistry meterRegistry) {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        Timer waitTimer = Timer.builder("password.hashing.queue.wait")
+                .description("Time hashing tasks spend queued before a worker picks them up")
+                .register(meterRegistry);
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("password-hash-");
+        executor.setRejectedExecutionHandler(PoolSaturatedException.REJECT);
+        executor.setTaskDecorator(task -> {
+            long submittedAt = System.nanoTime();
+            return () -> {
+                waitTimer.record(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+                task.run();
+            };
+        });
+
+        Gauge.builder("password.hashing.queue.size", executor, e -> e.getThreadPoolExecutor().getQueue().size())
+                .description("Hashing tasks waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("password.hashing.active", executor, ThreadPoolTaskExecutor::getActiveCount)
+                .description("Hashing tasks currently running")
+                .register(meterRegistry);
+        return executor;
+    }
+}
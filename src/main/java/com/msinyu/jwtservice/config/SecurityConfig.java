@@ -1,23 +1,55 @@
 package com.msinyu.jwtservice.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.msinyu.jwtservice.metrics.AuthMetrics;
+import com.msinyu.jwtservice.security.LoginRateLimitFilter;
+import com.msinyu.jwtservice.security.LoginRateLimiter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
 
 @Configuration
 @EnableWebSecurity
 public class SecurityConfig {
 
+    /**
+     * Creates the login rate limiting filter. It is added to the security filter chains only;
+     * the registration bean keeps the servlet container from also running it as a plain filter.
+     *
+     * @param loginRateLimiter Login rate limiter.
+     * @param objectMapper     Object mapper for request and response bodies.
+     * @param authMetrics      Metrics recording rate limited logins.
+     * @param maxBodySize      Largest login request body read, in bytes.
+     * @return Login rate limiting filter.
+     */
+    @Bean
+    public LoginRateLimitFilter loginRateLimitFilter(LoginRateLimiter loginRateLimiter, ObjectMapper objectMapper,
+                                                     AuthMetrics authMetrics,
+                                                     @Value("${login.rate-limit.max-body-size}") int maxBodySize) {
+        return new LoginRateLimitFilter(loginRateLimiter, objectMapper, authMetrics, maxBodySize);
+    }
+
+    @Bean
+    public FilterRegistrationBean<LoginRateLimitFilter> loginRateLimitFilterRegistration(LoginRateLimitFilter loginRateLimitFilter) {
+        FilterRegistrationBean<LoginRateLimitFilter> registration = new FilterRegistrationBean<>(loginRateLimitFilter);
+        registration.setEnabled(false);
+        return registration;
+    }
+
     @Bean
     @Profile("!test")
-    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain securityFilterChain(HttpSecurity http, LoginRateLimitFilter loginRateLimitFilter) throws Exception {
         http
+                .addFilterBefore(loginRateLimitFilter, BasicAuthenticationFilter.class)
                 .csrf().disable()
                 .authorizeRequests()
-                .antMatchers("/api/auth/**").permitAll()
+                .antMatchers("/api/auth/**", "/.well-known/jwks.json").permitAll()
                 .anyRequest().authenticated()
                 .and()
                 .httpBasic();
@@ -27,8 +59,9 @@ public class SecurityConfig {
 
     @Bean
     @Profile("test")
-    public SecurityFilterChain testSecurityFilterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain testSecurityFilterChain(HttpSecurity http, LoginRateLimitFilter loginRateLimitFilter) throws Exception {
         http
+                .addFilterBefore(loginRateLimitFilter, BasicAuthenticationFilter.class)
                 .csrf().disable()
                 .authorizeRequests()
                 .anyRequest().permitAll();
@@ -0,0 +1,74 @@
+package com.msinyu.jwtservice.config;
+
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs request handling on virtual threads when {@code spring.threads.virtual.enabled} is set.
+ * <p>
+ * Tomcat then starts a virtual thread per request instead of taking one from its fixed pool, so
+ * requests blocked on the database no longer hold a scarce platform thread; concurrency is
+ * bounded by {@code server.tomcat.max-connections} and the connection pool instead. CPU-heavy
+ * work stays on the bounded platform pools of {@link ExecutorConfig}: BCrypt and password vector
+ * generation on the password hashing executor, batch signature checks on the token verification
+ * executor. Virtual threads would otherwise all run BCrypt at once on the few carrier threads,
+ * and starve every other request. The database work chained after hashing continues on a
+ * virtual thread instead of holding the hashing thread.
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+    /**
+     * Executor starting a virtual thread per task.
+     *
+     * @return Virtual thread executor.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService virtualThreadExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("virtual-", 0).factory());
+    }
+
+    /**
+     * Hands Tomcat's connector the virtual thread executor in place of its own thread pool.
+     *
+     * @param virtualThreadExecutor Virtual thread executor.
+     * @return Protocol handler customizer.
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer(ExecutorService virtualThreadExecutor) {
+        return protocolHandler -> protocolHandler.setExecutor(virtualThreadExecutor);
+    }
+
+    /**
+     * Runs MVC async work, such as streaming batch validation results, on virtual threads.
+     *
+     * @param virtualThreadExecutor Virtual thread executor.
+     * @return Application task executor.
+     */
+    @Bean(name = {"applicationTaskExecutor", "taskExecutor"})
+    public AsyncTaskExecutor applicationTaskExecutor(ExecutorService virtualThreadExecutor) {
+        return new TaskExecutorAdapter(virtualThreadExecutor);
+    }
+
+    /**
+     * Runs the stages chained to password hashing futures, which read and write the database,
+     * on virtual threads instead of the hashing thread that completed them.
+     *
+     * @param virtualThreadExecutor Virtual thread executor.
+     * @return Password continuation executor.
+     */
+    @Bean
+    public Executor passwordContinuationExecutor(ExecutorService virtualThreadExecutor) {
+        return virtualThreadExecutor::execute;
+    }
+}
@@ -1,28 +1,70 @@
 package com.msinyu.jwtservice.controller;
 
+import com.msinyu.jwtservice.dto.request.BatchValidateTokenRequest;
 import com.msinyu.jwtservice.dto.request.LoginRequest;
+import com.msinyu.jwtservice.dto.request.RefreshTokenRequest;
 import com.msinyu.jwtservice.dto.request.RegisterRequest;
+import com.msinyu.jwtservice.dto.request.RevokeTokenRequest;
+import com.msinyu.jwtservice.dto.request.ValidateTokenRequest;
 import com.msinyu.jwtservice.dto.response.ApiResponse;
 import com.msinyu.jwtservice.dto.response.SuccessResponse;
 import com.msinyu.jwtservice.dto.response.TokenResponse;
+import com.msinyu.jwtservice.dto.response.TokenValidationResponse;
+import com.msinyu.jwtservice.metrics.AuthMetrics;
+import com.msinyu.jwtservice.metrics.AuthMetrics.LoginOutcome;
 import com.msinyu.jwtservice.model.User;
+import com.msinyu.jwtservice.model.UserCredentials;
 import com.msinyu.jwtservice.service.PasswordService;
+import com.msinyu.jwtservice.service.PasswordService.HashedPassword;
+import com.msinyu.jwtservice.service.RefreshTokenService;
+import com.msinyu.jwtservice.service.Result;
+import com.msinyu.jwtservice.service.TokenRevocationList;
+import com.msinyu.jwtservice.service.TokenValidationService;
 import com.msinyu.jwtservice.service.UserService;
 import com.msinyu.jwtservice.security.JwtUtil;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.Claims;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Controller for authentication endpoints.
  */
+@Slf4j
 @RestController
 @RequestMapping("/api/auth")
 public class AuthController {
 
+    private static final ApiResponse<SuccessResponse> USER_REGISTERED = success("User registered successfully.");
+    private static final ApiResponse<SuccessResponse> USERNAME_TAKEN = error("Username already exists.");
+    private static final ApiResponse<SuccessResponse> PASSWORD_VECTOR_ERROR = error("Error generating password vector.");
+    private static final ApiResponse<TokenResponse> INVALID_CREDENTIALS = error("Invalid credentials.");
+    private static final ApiResponse<TokenResponse> LOGIN_ERROR = error("An error occurred during login.");
+    private static final ApiResponse<TokenResponse> INVALID_REFRESH_TOKEN = error("Invalid refresh token.");
+    private static final ApiResponse<SuccessResponse> PASSWORD_UPDATED = success("Password updated successfully.");
+    private static final ApiResponse<SuccessResponse> USER_NOT_FOUND = error("User not found.");
+    private static final ApiResponse<SuccessResponse> PASSWORD_UPDATE_ERROR = error("Error updating password.");
+    private static final ApiResponse<TokenValidationResponse> INVALID_TOKEN = error("Invalid token.");
+    private static final ApiResponse<SuccessResponse> REVOKE_INVALID_TOKEN = error("Invalid token.");
+    private static final ApiResponse<SuccessResponse> TOKEN_NOT_REVOCABLE = error("Token cannot be revoked.");
+    private static final ApiResponse<SuccessResponse> TOKEN_REVOKED = success("Token revoked.");
+    private static final ApiResponse<SuccessResponse> PASSWORD_HASHING_BUSY = error("Service is busy, please retry later.");
+    private static final ApiResponse<TokenResponse> LOGIN_BUSY = error("Service is busy, please retry later.");
+
     @Autowired
     private UserService userService;
 
@@ -32,117 +74,296 @@ public class AuthController {
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private TokenValidationService tokenValidationService;
+
+    @Autowired
+    private TokenRevocationList tokenRevocationList;
+
+    @Autowired
+    private RefreshTokenService refreshTokenService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private AuthMetrics authMetrics;
+
+    @Value("${password.hashing.retry-after}")
+    private long retryAfterSeconds;
+
+    /**
+     * Builds a shared body with a fixed message and a success response of the same message.
+     * Bodies are immutable, so the common outcomes only allocate their response entity.
+     *
+     * @param message Message of the response.
+     * @return Success body.
+     */
+    private static ApiResponse<SuccessResponse> success(String message) {
+        return new ApiResponse<>(message, new SuccessResponse(message));
+    }
+
     /**
-     * Registers a new user.
+     * Builds a shared error body without data.
+     *
+     * @param message Error message.
+     * @param <T>     The type of the response data.
+     * @return Error body.
+     */
+    private static <T> ApiResponse<T> error(String message) {
+        return new ApiResponse<>(message, null);
+    }
+
+    /**
+     * Builds the response for requests shed because the password hashing pool is saturated.
+     *
+     * @param body Shared busy body.
+     * @param <T>  The type of the response data.
+     * @return Service unavailable response with a Retry-After hint.
+     */
+    private <T> ResponseEntity<ApiResponse<T>> busy(ApiResponse<T> body) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(body);
+    }
+
+    /**
+     * Registers a new user. Hashing and password vector generation run on the password hashing
+     * executor.
+     * Taken usernames are rejected before hashing; registrations racing for the same username are
+     * settled by the unique constraint on insert.
      *
      * @param registerRequest Registration request data.
      * @return Success message or error message.
      */
     @PostMapping("/register")
-    public ResponseEntity<ApiResponse<SuccessResponse>> register(@Valid @RequestBody RegisterRequest registerRequest) {
-        if (userService.findByUsername(registerRequest.getUsername()).isPresent()) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body(new ApiResponse<>("Username already exists.", null));
+    public CompletableFuture<ResponseEntity<ApiResponse<SuccessResponse>>> register(@Valid @RequestBody RegisterRequest registerRequest) {
+        if (userService.usernameExists(registerRequest.getUsername())) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.CONFLICT).body(USERNAME_TAKEN));
         }
 
-        String hashedPassword = passwordService.hashPassword(registerRequest.getPassword());
-        String passwordVector;
-        try {
-            passwordVector = passwordService.generatePasswordVector(hashedPassword);
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(new ApiResponse<>("Error generating password vector.", null));
-        }
+        return passwordService.hashPasswordWithVectorAsync(registerRequest.getPassword()).thenApply(result -> {
+            if (!result.isSuccess()) {
+                return result.getFailure() == Result.Failure.BUSY
+                        ? busy(PASSWORD_HASHING_BUSY)
+                        : ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(PASSWORD_VECTOR_ERROR);
+            }
+            HashedPassword hashedPassword = result.getValue();
 
-        User user = new User();
-        user.setUsername(registerRequest.getUsername());
-        user.setPasswordHash(hashedPassword);
-        try {
-            passwordService.addPasswordHistory(user, hashedPassword, passwordVector);
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(new ApiResponse<>("Error adding password history.", null));
-        }
-
-        userService.registerUser(user);
-        return ResponseEntity.status(HttpStatus.CREATED)
-                .body(new ApiResponse<>("User registered successfully.", new SuccessResponse("User registered successfully.")));
+            User user = new User();
+            user.setUsername(registerRequest.getUsername());
+            user.setPasswordHash(hashedPassword.getPasswordHash());
+            passwordService.addPasswordHistory(user, hashedPassword.getPasswordHash(), hashedPassword.getPasswordVector());
+            return userService.registerUser(user).isSuccess()
+                    ? ResponseEntity.status(HttpStatus.CREATED).body(USER_REGISTERED)
+                    : ResponseEntity.status(HttpStatus.CONFLICT).body(USERNAME_TAKEN);
+        });
     }
 
     /**
-     * Authenticates a user and issues a JWT token.
+     * Authenticates a user and issues a JWT token. Password verification runs on the
+     * password hashing executor; unknown users are verified against a dummy hash so that the
+     * response time does not reveal whether a username exists. Only the user's credentials are
+     * loaded up front; password vectors are only read after a successful verification, to compute
+     * the key digest of users who do not have one yet.
      *
      * @param loginRequest Login request data.
      * @return JWT token or error message.
      */
     @PostMapping("/login")
-    public ResponseEntity<ApiResponse<TokenResponse>> login(@Valid @RequestBody LoginRequest loginRequest) {
+    public CompletableFuture<ResponseEntity<ApiResponse<TokenResponse>>> login(@Valid @RequestBody LoginRequest loginRequest) {
+        Optional<UserCredentials> user;
         try {
-            return userService.findByUsername(loginRequest.getUsername())
-                    .map(user -> {
-                        if (passwordService.verifyPassword(loginRequest.getPassword(), user.getPasswordHash())) {
-                            String token = jwtUtil.generateToken(user);
-                            ApiResponse<TokenResponse> successResponse = new ApiResponse<>(
-                                    "Login successful.",
-                                    new TokenResponse(token)
-                            );
-                            return ResponseEntity.ok(successResponse);
-                        } else {
-                            ApiResponse<TokenResponse> errorResponse = new ApiResponse<>(
-                                    "Invalid credentials.",
-                                    null
-                            );
-                            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(errorResponse);
+            user = userService.findCredentialsByUsername(loginRequest.getUsername());
+        } catch (DataAccessException e) {
+            return CompletableFuture.completedFuture(loginError());
+        }
+        if (!user.isPresent()) {
+            return passwordService.verifyDummyPasswordAsync(loginRequest.getPassword())
+                    .thenApply(matches -> {
+                        if (!matches.isSuccess()) {
+                            return loginRejected();
                         }
-                    })
-                    .orElseGet(() -> {
-                        ApiResponse<TokenResponse> orElseResponse = new ApiResponse<>(
-                                "Invalid credentials.",
-                                null
-                        );
-                        return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(orElseResponse);
+                        authMetrics.recordLogin(LoginOutcome.UNKNOWN_USER);
+                        return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(INVALID_CREDENTIALS);
                     });
-        } catch (Exception e) {
-            ApiResponse<TokenResponse> exceptionResponse = new ApiResponse<>(
-                    "An error occurred during login.",
-                    null
-            );
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(exceptionResponse);
         }
+
+        return passwordService.verifyPasswordAsync(loginRequest.getPassword(), user.get().getPasswordHash())
+                .thenApply(matches -> {
+                    if (!matches.isSuccess()) {
+                        return loginRejected();
+                    }
+                    if (!matches.getValue()) {
+                        authMetrics.recordLogin(LoginOutcome.INVALID_PASSWORD);
+                        return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(INVALID_CREDENTIALS);
+                    }
+                    userService.upgradePasswordHashIfNeeded(user.get(), loginRequest.getPassword());
+                    UserCredentials credentials = userService.ensureKeyDigest(user.get());
+                    String token = jwtUtil.generateToken(credentials);
+                    String refreshToken = refreshTokenService.issue(credentials);
+                    authMetrics.recordLogin(LoginOutcome.SUCCESS);
+                    return ResponseEntity.ok(new ApiResponse<>("Login successful.", new TokenResponse(token, refreshToken)));
+                })
+                .exceptionally(e -> loginError());
+    }
+
+    /**
+     * Exchanges a refresh token for a new token and refresh token, without verifying the password
+     * again. Each refresh token can be exchanged once; exchanging it again revokes every refresh
+     * token issued since the login it descends from.
+     *
+     * @param refreshTokenRequest Refresh token request data.
+     * @return New tokens or error message.
+     */
+    @PostMapping("/refresh")
+    public ResponseEntity<ApiResponse<TokenResponse>> refresh(@Valid @RequestBody RefreshTokenRequest refreshTokenRequest) {
+        Optional<RefreshTokenService.Rotation> rotation = refreshTokenService.rotate(refreshTokenRequest.getRefreshToken());
+        if (!rotation.isPresent()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(INVALID_REFRESH_TOKEN);
+        }
+        String token = jwtUtil.generateToken(rotation.get().getUser());
+        return ResponseEntity.ok(new ApiResponse<>("Token refreshed.", new TokenResponse(token, rotation.get().getRefreshToken())));
+    }
+
+    /**
+     * Builds the response for login attempts shed because the password hashing pool is saturated.
+     *
+     * @return Service unavailable response.
+     */
+    private ResponseEntity<ApiResponse<TokenResponse>> loginRejected() {
+        authMetrics.recordLogin(LoginOutcome.REJECTED);
+        return busy(LOGIN_BUSY);
+    }
+
+    /**
+     * Builds the response for unexpected login failures.
+     *
+     * @return Internal server error response.
+     */
+    private ResponseEntity<ApiResponse<TokenResponse>> loginError() {
+        authMetrics.recordLogin(LoginOutcome.ERROR);
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(LOGIN_ERROR);
     }
 
     /**
-     * Changes the user's password.
+     * Changes the user's password. Hashing and password vector generation run on the password
+     * hashing executor.
      *
      * @param username    Username of the user.
      * @param newPassword New password.
      * @return Success message or error message.
      */
     @PostMapping("/change-password")
-    public ResponseEntity<ApiResponse<SuccessResponse>> changePassword(
+    public CompletableFuture<ResponseEntity<ApiResponse<SuccessResponse>>> changePassword(
             @RequestParam String username,
             @RequestParam String newPassword) {
-        return userService.findByUsername(username)
-                .map(user -> {
-                    String hashedPassword = passwordService.hashPassword(newPassword);
-                    String passwordVector;
-                    try {
-                        passwordVector = passwordService.generatePasswordVector(hashedPassword);
-                        userService.updateUserPassword(user, hashedPassword, passwordVector);
-                    } catch (Exception e) {
-                        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                                .body(new ApiResponse<SuccessResponse>("Error updating password.", null));
+        Optional<User> user = userService.findByUsername(username);
+        if (!user.isPresent()) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.NOT_FOUND).body(USER_NOT_FOUND));
+        }
+        return passwordService.hashPasswordWithVectorAsync(newPassword)
+                .thenApply(result -> {
+                    if (!result.isSuccess()) {
+                        return result.getFailure() == Result.Failure.BUSY
+                                ? busy(PASSWORD_HASHING_BUSY)
+                                : ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(PASSWORD_UPDATE_ERROR);
                     }
-                    return ResponseEntity.status(HttpStatus.OK)
-                            .body(new ApiResponse<>(
-                                    "Password updated successfully.",
-                                    new SuccessResponse("Password updated successfully.")
-                            ));
+                    HashedPassword hashedPassword = result.getValue();
+                    userService.updateUserPassword(user.get(), hashedPassword.getPasswordHash(), hashedPassword.getPasswordVector());
+                    return ResponseEntity.ok(PASSWORD_UPDATED);
                 })
-                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ApiResponse<SuccessResponse>(
-                        "User not found.",
-                        null
-                )));
+                .exceptionally(e -> ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(PASSWORD_UPDATE_ERROR));
+    }
+
+    /**
+     * Validates a JWT token and returns its claims.
+     *
+     * @param validateTokenRequest Token validation request data.
+     * @return Token claims or error message.
+     */
+    @PostMapping("/validate")
+    public ResponseEntity<ApiResponse<TokenValidationResponse>> validate(@Valid @RequestBody ValidateTokenRequest validateTokenRequest) {
+        return tokenValidationService.validate(validateTokenRequest.getToken())
+                .map(claims -> ResponseEntity.ok(new ApiResponse<>("Token is valid.", toValidationResponse(claims))))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(INVALID_TOKEN));
+    }
+
+    /**
+     * Revokes a single token, such as on logout or when a device is lost. Other tokens of the
+     * user stay valid.
+     *
+     * @param revokeTokenRequest Token revocation request data.
+     * @return Success message or error message.
+     */
+    @PostMapping("/revoke")
+    public ResponseEntity<ApiResponse<SuccessResponse>> revoke(@Valid @RequestBody RevokeTokenRequest revokeTokenRequest) {
+        Optional<Claims> claims = tokenValidationService.validate(revokeTokenRequest.getToken());
+        if (!claims.isPresent()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(REVOKE_INVALID_TOKEN);
+        }
+        if (claims.get().getId() == null || claims.get().getExpiration() == null) {
+            return ResponseEntity.badRequest().body(TOKEN_NOT_REVOCABLE);
+        }
+        tokenRevocationList.revoke(claims.get().getId(), claims.get().getExpiration().getTime());
+        return ResponseEntity.ok(TOKEN_REVOKED);
+    }
+
+    /**
+     * Validates a batch of JWT tokens. Tokens are verified in parallel and results are streamed
+     * back in request order as soon as each one is available.
+     *
+     * @param batchValidateTokenRequest Batch token validation request data.
+     * @return Per-token validation results in request order.
+     */
+    @PostMapping("/validate/batch")
+    public ResponseEntity<StreamingResponseBody> validateBatch(
+            @Valid @RequestBody BatchValidateTokenRequest batchValidateTokenRequest) {
+        List<CompletableFuture<Optional<Claims>>> results =
+                tokenValidationService.validateBatch(batchValidateTokenRequest.getTokens());
+
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.writeStartObject();
+                generator.writeStringField("message", "Tokens validated.");
+                generator.writeArrayFieldStart("data");
+                for (CompletableFuture<Optional<Claims>> result : results) {
+                    TokenValidationResponse response = result
+                            .handle((claims, e) -> {
+                                if (e != null) {
+                                    // The status and earlier entries are already written, so a failed
+                                    // lookup is reported as an invalid token rather than aborting the body
+                                    log.warn("Batch token validation failed", e);
+                                    return Optional.<Claims>empty();
+                                }
+                                return claims;
+                            })
+                            .join()
+                            .map(this::toValidationResponse)
+                            .orElseGet(() -> new TokenValidationResponse(false, null, null, null));
+                    objectMapper.writeValue(generator, response);
+                    generator.flush();
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Maps verified claims to a validation response.
+     *
+     * @param claims Verified claims.
+     * @return Validation response.
+     */
+    private TokenValidationResponse toValidationResponse(Claims claims) {
+        return new TokenValidationResponse(
+                true,
+                claims.getSubject(),
+                claims.getIssuedAt() != null ? claims.getIssuedAt().getTime() / 1000 : null,
+                claims.getExpiration() != null ? claims.getExpiration().getTime() / 1000 : null
+        );
     }
 
 }
@@ -0,0 +1,40 @@
+package com.msinyu.jwtservice.controller;
+
+import com.msinyu.jwtservice.security.ServiceKeyPairs;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controller publishing the service's token verification keys.
+ */
+@RestController
+public class JwksController {
+
+    @Autowired
+    private ServiceKeyPairs serviceKeyPairs;
+
+    @Value("${jwt.jwks.max-age}")
+    private long maxAge;
+
+    /**
+     * Returns the public keys of the ES256 service key pairs as a JSON Web Key Set (RFC 7517).
+     * The set is empty unless tokens are signed with ES256.
+     *
+     * @return JSON Web Key Set.
+     */
+    @GetMapping("/.well-known/jwks.json")
+    public ResponseEntity<Map<String, List<Map<String, String>>>> jwks() {
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(maxAge, TimeUnit.SECONDS).cachePublic())
+                .body(Collections.singletonMap("keys", serviceKeyPairs.toJwks()));
+    }
+}
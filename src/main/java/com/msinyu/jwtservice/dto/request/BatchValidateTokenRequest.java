@@ -0,0 +1,22 @@
+package com.msinyu.jwtservice.dto.request;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+/**
+ * DTO for batch token validation requests.
+ */
+@Getter
+@Setter
+public class BatchValidateTokenRequest {
+
+    @NotEmpty
+    @Size(max = 1000)
+    private List<@NotBlank String> tokens;
+
+}
@@ -0,0 +1,18 @@
+package com.msinyu.jwtservice.dto.request;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.constraints.NotBlank;
+
+/**
+ * DTO for refresh token exchange requests.
+ */
+@Getter
+@Setter
+public class RefreshTokenRequest {
+
+    @NotBlank
+    private String refreshToken;
+
+}
@@ -0,0 +1,18 @@
+package com.msinyu.jwtservice.dto.request;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.constraints.NotBlank;
+
+/**
+ * DTO for token revocation requests.
+ */
+@Getter
+@Setter
+public class RevokeTokenRequest {
+
+    @NotBlank
+    private String token;
+
+}
@@ -1,30 +1,37 @@
 package com.msinyu.jwtservice.dto.response;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
-import lombok.NoArgsConstructor;
-import lombok.Setter;
 
 /**
- * Generic API response wrapper.
+ * Generic API response wrapper. Immutable, so responses for common failures can be shared.
  *
  * @param <T> The type of the response data.
  */
 @Getter
-@Setter
-@AllArgsConstructor
-@NoArgsConstructor
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class ApiResponse<T> {
     /**
      * Message describing the result of the API call.
      */
-    private String message;
+    private final String message;
 
     /**
      * Data payload of the response.
      */
-    private T data;
+    private final T data;
+
+    /**
+     * Constructs an ApiResponse with the provided message and data.
+     *
+     * @param message Message describing the result.
+     * @param data    Data payload, may be null.
+     */
+    @JsonCreator
+    public ApiResponse(@JsonProperty("message") String message, @JsonProperty("data") T data) {
+        this.message = message;
+        this.data = data;
+    }
 }
@@ -18,12 +18,19 @@ public class TokenResponse {
     private String token;
 
     /**
-     * Constructs a TokenResponse with the provided token.
+     * The single-use refresh token, exchanged for a new token pair at {@code /api/auth/refresh}.
+     */
+    private String refreshToken;
+
+    /**
+     * Constructs a TokenResponse with the provided tokens.
      *
-     * @param token JWT token string.
+     * @param token        JWT token string.
+     * @param refreshToken Refresh token string.
      */
     @JsonCreator
-    public TokenResponse(@JsonProperty("token") String token) {
+    public TokenResponse(@JsonProperty("token") String token, @JsonProperty("refreshToken") String refreshToken) {
         this.token = token;
+        this.refreshToken = refreshToken;
     }
 }
@@ -0,0 +1,55 @@
+package com.msinyu.jwtservice.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * DTO for token validation results.
+ */
+@Getter
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TokenValidationResponse {
+
+    /**
+     * Whether the token signature and expiration are valid.
+     */
+    private boolean valid;
+
+    /**
+     * Subject (username) of the token.
+     */
+    private String subject;
+
+    /**
+     * Issue time in seconds since the epoch.
+     */
+    private Long issuedAt;
+
+    /**
+     * Expiration time in seconds since the epoch.
+     */
+    private Long expiresAt;
+
+    /**
+     * Constructs a TokenValidationResponse with the provided claims.
+     *
+     * @param valid     Whether the token is valid.
+     * @param subject   Subject of the token.
+     * @param issuedAt  Issue time in seconds since the epoch.
+     * @param expiresAt Expiration time in seconds since the epoch.
+     */
+    @JsonCreator
+    public TokenValidationResponse(@JsonProperty("valid") boolean valid,
+                                   @JsonProperty("subject") String subject,
+                                   @JsonProperty("issuedAt") Long issuedAt,
+                                   @JsonProperty("expiresAt") Long expiresAt) {
+        this.valid = valid;
+        this.subject = subject;
+        this.issuedAt = issuedAt;
+        this.expiresAt = expiresAt;
+    }
+}
@@ -1,18 +1,77 @@
 package com.msinyu.jwtservice.exception;
 
 import com.msinyu.jwtservice.dto.response.ErrorResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.web.bind.MethodArgumentNotValidException;
+import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 
+import java.util.concurrent.RejectedExecutionException;
+
 /**
- * Global exception handler for the application.
+ * Global exception handler for the application. Messages of exceptions are logged rather than
+ * returned, and the bodies of the responses are shared.
  */
+@Slf4j
 @ControllerAdvice
 public class GlobalExceptionHandler {
 
+    private static final ErrorResponse SERVICE_BUSY = new ErrorResponse("Service is busy, please retry later.");
+    private static final ErrorResponse INVALID_REQUEST = new ErrorResponse("Invalid request.");
+    private static final ErrorResponse CONFLICTING_DATA = new ErrorResponse("Conflicting data.");
+    private static final ErrorResponse DATABASE_ERROR = new ErrorResponse("Database error.");
+    private static final ErrorResponse INTERNAL_ERROR = new ErrorResponse("An error occurred.");
+
+    @Value("${password.hashing.retry-after}")
+    private long retryAfterSeconds;
+
+    /**
+     * Handles rejections raised when a bounded worker pool is saturated.
+     *
+     * @param ex The exception.
+     * @return ResponseEntity with a Retry-After hint.
+     */
+    @ExceptionHandler({TaskRejectedException.class, RejectedExecutionException.class})
+    public ResponseEntity<ErrorResponse> handleTaskRejectedException(RuntimeException ex) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(SERVICE_BUSY);
+    }
+
+    /**
+     * Handles requests whose body or parameters are missing, malformed or invalid. Common in
+     * abusive traffic, so the exception is not logged.
+     *
+     * @param ex The exception.
+     * @return ResponseEntity with bad request status.
+     */
+    @ExceptionHandler({HttpMessageNotReadableException.class, MethodArgumentNotValidException.class,
+            MissingServletRequestParameterException.class})
+    public ResponseEntity<ErrorResponse> handleInvalidRequestException(Exception ex) {
+        return new ResponseEntity<>(INVALID_REQUEST, HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Handles DataIntegrityViolationException raised when a write loses a race on a unique
+     * constraint.
+     *
+     * @param ex The exception.
+     * @return ResponseEntity with conflict status.
+     */
+    @ExceptionHandler(DataIntegrityViolationException.class)
+    public ResponseEntity<ErrorResponse> handleDataIntegrityViolationException(DataIntegrityViolationException ex) {
+        return new ResponseEntity<>(CONFLICTING_DATA, HttpStatus.CONFLICT);
+    }
+
     /**
      * Handles InvalidDataAccessApiUsageException.
      *
@@ -21,7 +80,8 @@ public class GlobalExceptionHandler {
      */
     @ExceptionHandler(InvalidDataAccessApiUsageException.class)
     public ResponseEntity<ErrorResponse> handleInvalidDataAccessApiUsageException(InvalidDataAccessApiUsageException ex) {
-        return new ResponseEntity<>(new ErrorResponse("Database error: " + ex.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
+        log.error("Database error", ex);
+        return new ResponseEntity<>(DATABASE_ERROR, HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
     /**
@@ -32,6 +92,7 @@ public class GlobalExceptionHandler {
      */
     @ExceptionHandler(Exception.class)
     public ResponseEntity<ErrorResponse> handleGeneralException(Exception ex) {
-        return new ResponseEntity<>(new ErrorResponse("An error occurred: " + ex.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
+        log.error("Unhandled exception", ex);
+        return new ResponseEntity<>(INTERNAL_ERROR, HttpStatus.INTERNAL_SERVER_ERROR);
     }
 }
@@ -0,0 +1,30 @@
+package com.msinyu.jwtservice.exception;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+
+/**
+ * Rejection of a task by a saturated bounded pool. Under a burst every excess submission is
+ * rejected, so a single instance without a stack trace is thrown instead of building a message
+ * and a stack trace each time.
+ */
+public final class PoolSaturatedException extends RejectedExecutionException {
+
+    private static final PoolSaturatedException INSTANCE = new PoolSaturatedException();
+
+    /**
+     * Rejection handler throwing the shared instance.
+     */
+    public static final RejectedExecutionHandler REJECT = (task, executor) -> {
+        throw INSTANCE;
+    };
+
+    private PoolSaturatedException() {
+        super("Pool is saturated.");
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,157 @@
+package com.msinyu.jwtservice.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Timers and counters for the stages of registration, login, refresh and token issuance.
+ * <p>
+ * Meters are registered once and handed out as fields, so recording costs a clock read and an
+ * atomic update. Percentile histograms are enabled per name prefix in the application
+ * properties and exported through the actuator Prometheus endpoint.
+ */
+@Getter
+@Component
+public class AuthMetrics {
+
+    /**
+     * Stages of password vector generation: the fused sign matrix, its compression and its
+     * encryption.
+     */
+    public enum VectorStage {
+        SIGN_MATRIX("signMatrix"),
+        DEFLATE("deflate"),
+        ENCRYPT("encrypt");
+
+        private final String tag;
+
+        VectorStage(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    /**
+     * Outcomes of a login attempt.
+     */
+    public enum LoginOutcome {
+        SUCCESS("success"),
+        UNKNOWN_USER("unknown_user"),
+        INVALID_PASSWORD("invalid_password"),
+        REJECTED("rejected"),
+        RATE_LIMITED("rate_limited"),
+        ERROR("error");
+
+        private final String tag;
+
+        LoginOutcome(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    /**
+     * Outcomes of a refresh token exchange.
+     */
+    public enum RefreshOutcome {
+        SUCCESS("success"),
+        INVALID("invalid"),
+        REUSED("reused");
+
+        private final String tag;
+
+        RefreshOutcome(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final Timer bcryptHashTimer;
+    private final Timer bcryptVerifyTimer;
+    private final Timer vectorGenerationTimer;
+    private final Timer userLookupTimer;
+    private final Timer keyDerivationTimer;
+    private final Timer tokenSigningTimer;
+
+    @Getter(AccessLevel.NONE)
+    private final Map<VectorStage, Timer> vectorStageTimers = new EnumMap<>(VectorStage.class);
+
+    @Getter(AccessLevel.NONE)
+    private final Map<LoginOutcome, Counter> loginCounters = new EnumMap<>(LoginOutcome.class);
+
+    @Getter(AccessLevel.NONE)
+    private final Map<RefreshOutcome, Counter> refreshCounters = new EnumMap<>(RefreshOutcome.class);
+
+    public AuthMetrics(MeterRegistry meterRegistry) {
+        this.bcryptHashTimer = Timer.builder("password.bcrypt")
+                .description("BCrypt hashing and verification")
+                .tag("operation", "hash")
+                .register(meterRegistry);
+        this.bcryptVerifyTimer = Timer.builder("password.bcrypt")
+                .description("BCrypt hashing and verification")
+                .tag("operation", "verify")
+                .register(meterRegistry);
+        this.vectorGenerationTimer = Timer.builder("password.vector.generation")
+                .description("Password vector generation, all stages")
+                .register(meterRegistry);
+        this.userLookupTimer = Timer.builder("user.lookup")
+                .description("User and password history lookup")
+                .register(meterRegistry);
+        this.keyDerivationTimer = Timer.builder("jwt.key.derivation")
+                .description("Per-user signing key derivation on a cache miss")
+                .register(meterRegistry);
+        this.tokenSigningTimer = Timer.builder("jwt.sign")
+                .description("Token generation including key lookup")
+                .register(meterRegistry);
+        for (VectorStage stage : VectorStage.values()) {
+            vectorStageTimers.put(stage, Timer.builder("password.vector.stage")
+                    .description("Password vector generation, per stage")
+                    .tag("stage", stage.tag)
+                    .register(meterRegistry));
+        }
+        for (LoginOutcome outcome : LoginOutcome.values()) {
+            loginCounters.put(outcome, Counter.builder("auth.login")
+                    .description("Login attempts by outcome")
+                    .tag("outcome", outcome.tag)
+                    .register(meterRegistry));
+        }
+        for (RefreshOutcome outcome : RefreshOutcome.values()) {
+            refreshCounters.put(outcome, Counter.builder("auth.refresh")
+                    .description("Refresh token exchanges by outcome")
+                    .tag("outcome", outcome.tag)
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Returns the timer of a password vector stage.
+     *
+     * @param stage Vector generation stage.
+     * @return Stage timer.
+     */
+    public Timer vectorStage(VectorStage stage) {
+        return vectorStageTimers.get(stage);
+    }
+
+    /**
+     * Counts a login attempt.
+     *
+     * @param outcome Outcome of the attempt.
+     */
+    public void recordLogin(LoginOutcome outcome) {
+        loginCounters.get(outcome).increment();
+    }
+
+    /**
+     * Counts a refresh token exchange.
+     *
+     * @param outcome Outcome of the exchange.
+     */
+    public void recordRefresh(RefreshOutcome outcome) {
+        refreshCounters.get(outcome).increment();
+    }
+}
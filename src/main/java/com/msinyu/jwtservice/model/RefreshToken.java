@@ -0,0 +1,72 @@
+package com.msinyu.jwtservice.model;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+
+/**
+ * Represents a single-use refresh token of a user. Only a hash of the token is stored.
+ * <p>
+ * Each refresh replaces the token with a new one of the same family. Used tokens are kept until
+ * they expire, so that presenting one again is detected as reuse.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@Entity
+@Table(name = "refresh_tokens", indexes = {
+        @Index(name = "idx_refresh_tokens_user_id", columnList = "userId"),
+        @Index(name = "idx_refresh_tokens_family_id", columnList = "familyId"),
+        @Index(name = "idx_refresh_tokens_expires_at", columnList = "expiresAt")
+})
+public class RefreshToken {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * Base64url encoded SHA-256 hash of the token.
+     */
+    @Column(nullable = false, unique = true, length = 43)
+    private String tokenHash;
+
+    /**
+     * The id of the user the token was issued to.
+     */
+    @Column(nullable = false)
+    private Long userId;
+
+    /**
+     * Id shared by all tokens descending from the same login.
+     */
+    @Column(nullable = false, length = 22)
+    private String familyId;
+
+    /**
+     * Key version of the user's random hash at login, carried by every token of the family.
+     * A password change rotates the random hash, after which the family can no longer be exchanged.
+     */
+    @Column(nullable = false, length = 11)
+    private String keyVersion;
+
+    /**
+     * Expiration of the token, in milliseconds since the epoch. Never later than the family's.
+     */
+    @Column(nullable = false)
+    private long expiresAt;
+
+    /**
+     * Expiration of the whole family, fixed at login, in milliseconds since the epoch.
+     */
+    @Column(nullable = false)
+    private long familyExpiresAt;
+
+    /**
+     * Time the token was exchanged, in milliseconds since the epoch, or null while unused.
+     */
+    private Long usedAt;
+
+}
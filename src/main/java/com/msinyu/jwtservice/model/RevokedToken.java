@@ -0,0 +1,42 @@
+package com.msinyu.jwtservice.model;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+
+/**
+ * Represents a token revoked before its expiration, identified by its {@code jti} claim.
+ * Rows are deleted once the token would have expired anyway.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@Entity
+@Table(name = "revoked_tokens", indexes = {
+        @Index(name = "idx_revoked_tokens_expires_at", columnList = "expiresAt"),
+        @Index(name = "idx_revoked_tokens_revoked_at", columnList = "revokedAt")
+})
+public class RevokedToken {
+
+    /**
+     * The token id.
+     */
+    @Id
+    @Column(length = 32)
+    private String tokenId;
+
+    /**
+     * Expiration of the token, in milliseconds since the epoch.
+     */
+    @Column(nullable = false)
+    private long expiresAt;
+
+    /**
+     * Time the token was revoked, in milliseconds since the epoch.
+     */
+    @Column(nullable = false)
+    private long revokedAt;
+
+}
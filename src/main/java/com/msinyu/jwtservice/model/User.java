@@ -39,6 +39,13 @@ public class User {
     @Column(nullable = false, unique = true, length = 64)
     private String randomHash;
 
+    /**
+     * Versioned digest of the password vectors, used as signing key material instead of the
+     * vectors themselves. Null for users created before digests were stored, until their next login.
+     */
+    @Column(length = 64)
+    private String keyDigest;
+
     /**
      * One-to-Many relationship with PasswordHistory.
      * CascadeType.ALL ensures that all operations (persist, merge, remove, etc.) are cascaded.
@@ -0,0 +1,23 @@
+package com.msinyu.jwtservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Read-only projection of the {@link User} columns needed to verify a password and sign a token.
+ * Loading it never touches the password history table or its password vector LOBs.
+ */
+@Getter
+@AllArgsConstructor
+public class UserCredentials {
+
+    private final Long id;
+
+    private final String username;
+
+    private final String passwordHash;
+
+    private final String randomHash;
+
+    private final String keyDigest;
+}
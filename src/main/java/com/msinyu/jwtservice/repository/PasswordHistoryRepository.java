@@ -0,0 +1,36 @@
+package com.msinyu.jwtservice.repository;
+
+import com.msinyu.jwtservice.model.PasswordHistory;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Repository interface for PasswordHistory entities.
+ */
+@Repository
+public interface PasswordHistoryRepository extends JpaRepository<PasswordHistory, Long> {
+
+    /**
+     * Finds the next page of password histories in id order, for batch processing.
+     *
+     * @param id       Exclusive lower bound of the ids to return.
+     * @param pageable Page size.
+     * @return Password histories with an id greater than the given one.
+     */
+    List<PasswordHistory> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    /**
+     * Finds the password vectors of a user, newest first, in the same order as
+     * {@link com.msinyu.jwtservice.model.User#getPasswordHistories()}.
+     *
+     * @param userId The id of the user.
+     * @return Stored password vectors.
+     */
+    @Query("SELECT h.passwordVector FROM PasswordHistory h WHERE h.user.id = :userId ORDER BY h.createdAt DESC")
+    List<String> findPasswordVectorsByUserId(@Param("userId") Long userId);
+}
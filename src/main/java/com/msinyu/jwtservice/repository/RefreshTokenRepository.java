@@ -0,0 +1,72 @@
+package com.msinyu.jwtservice.repository;
+
+import com.msinyu.jwtservice.model.RefreshToken;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+/**
+ * Repository interface for RefreshToken entities.
+ */
+@Repository
+public interface RefreshTokenRepository extends JpaRepository<RefreshToken, Long> {
+
+    /**
+     * Finds a refresh token by its hash.
+     *
+     * @param tokenHash Hash of the token.
+     * @return Optional containing the token if found.
+     */
+    Optional<RefreshToken> findByTokenHash(String tokenHash);
+
+    /**
+     * Marks an unused refresh token as used. Of several concurrent exchanges of the same token,
+     * only one updates the row.
+     *
+     * @param id  The id of the token.
+     * @param now Current time in milliseconds since the epoch.
+     * @return Number of updated rows, 0 if the token has already been used.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE RefreshToken t SET t.usedAt = :now WHERE t.id = :id AND t.usedAt IS NULL")
+    int markUsed(@Param("id") Long id, @Param("now") long now);
+
+    /**
+     * Deletes every token of a family.
+     *
+     * @param familyId The id of the family.
+     * @return Number of deleted rows.
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM RefreshToken t WHERE t.familyId = :familyId")
+    int deleteByFamilyId(@Param("familyId") String familyId);
+
+    /**
+     * Deletes every token of a user.
+     *
+     * @param userId The id of the user.
+     * @return Number of deleted rows.
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM RefreshToken t WHERE t.userId = :userId")
+    int deleteByUserId(@Param("userId") Long userId);
+
+    /**
+     * Deletes expired tokens, used or not.
+     *
+     * @param now Current time in milliseconds since the epoch.
+     * @return Number of deleted rows.
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM RefreshToken t WHERE t.expiresAt < :now")
+    int deleteExpired(@Param("now") long now);
+}
@@ -0,0 +1,45 @@
+package com.msinyu.jwtservice.repository;
+
+import com.msinyu.jwtservice.model.RevokedToken;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Repository interface for RevokedToken entities.
+ */
+@Repository
+public interface RevokedTokenRepository extends JpaRepository<RevokedToken, String> {
+
+    /**
+     * Finds the revocations of tokens that have not expired yet.
+     *
+     * @param now Current time in milliseconds since the epoch.
+     * @return Revoked tokens expiring after the given time.
+     */
+    List<RevokedToken> findByExpiresAtGreaterThan(long now);
+
+    /**
+     * Finds the revocations made since a given time, by this or any other instance.
+     *
+     * @param since Time in milliseconds since the epoch, inclusive.
+     * @return Revoked tokens revoked at or after the given time.
+     */
+    List<RevokedToken> findByRevokedAtGreaterThanEqual(long since);
+
+    /**
+     * Deletes the revocations of tokens that have expired.
+     *
+     * @param now Current time in milliseconds since the epoch.
+     * @return Number of deleted rows.
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM RevokedToken t WHERE t.expiresAt < :now")
+    int deleteExpired(@Param("now") long now);
+}
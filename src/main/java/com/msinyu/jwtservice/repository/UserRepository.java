@@ -1,12 +1,19 @@
 package com.msinyu.jwtservice.repository;
 
 import com.msinyu.jwtservice.model.User;
+import com.msinyu.jwtservice.model.UserCredentials;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.QueryHint;
 
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * Repository interface for User entities.
@@ -22,4 +29,70 @@ public interface UserRepository extends JpaRepository<User, Long> {
      */
     @Query("SELECT u FROM User u LEFT JOIN FETCH u.passwordHistories WHERE u.username = :username")
     Optional<User> findByUsernameWithPasswordHistories(@Param("username") String username);
+
+    /**
+     * Finds the credentials of a user by username, without loading password histories.
+     *
+     * @param username The username to search for.
+     * @return An Optional containing the credentials if found.
+     */
+    @Query("SELECT new com.msinyu.jwtservice.model.UserCredentials(u.id, u.username, u.passwordHash, u.randomHash, u.keyDigest) "
+            + "FROM User u WHERE u.username = :username")
+    Optional<UserCredentials> findCredentialsByUsername(@Param("username") String username);
+
+    /**
+     * Finds the credentials of a user by id, without loading password histories.
+     *
+     * @param id The id to search for.
+     * @return An Optional containing the credentials if found.
+     */
+    @Query("SELECT new com.msinyu.jwtservice.model.UserCredentials(u.id, u.username, u.passwordHash, u.randomHash, u.keyDigest) "
+            + "FROM User u WHERE u.id = :id")
+    Optional<UserCredentials> findCredentialsById(@Param("id") Long id);
+
+    /**
+     * Checks whether a username is taken without loading the user.
+     *
+     * @param username The username to check.
+     * @return True if a user with the username exists.
+     */
+    boolean existsByUsername(String username);
+
+    /**
+     * Streams all usernames. Must be consumed and closed inside a transaction.
+     *
+     * @return Stream of usernames.
+     */
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT u.username FROM User u")
+    Stream<String> streamAllUsernames();
+
+    /**
+     * Stores a recomputed key digest together with a new random hash, unless the random hash was
+     * changed concurrently by a password change or another backfill.
+     *
+     * @param id            The id of the user.
+     * @param oldRandomHash The random hash expected to be stored.
+     * @param randomHash    The replacement random hash.
+     * @param keyDigest     The key digest.
+     * @return Number of updated rows.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE User u SET u.randomHash = :randomHash, u.keyDigest = :keyDigest WHERE u.id = :id AND u.randomHash = :oldRandomHash")
+    int updateKeyDigest(@Param("id") Long id, @Param("oldRandomHash") String oldRandomHash,
+                        @Param("randomHash") String randomHash, @Param("keyDigest") String keyDigest);
+
+    /**
+     * Replaces a user's password hash if it has not been changed concurrently.
+     *
+     * @param id      The id of the user.
+     * @param oldHash The hash expected to be stored.
+     * @param newHash The replacement hash.
+     * @return Number of updated rows.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE User u SET u.passwordHash = :newHash WHERE u.id = :id AND u.passwordHash = :oldHash")
+    int updatePasswordHash(@Param("id") Long id, @Param("oldHash") String oldHash, @Param("newHash") String newHash);
 }
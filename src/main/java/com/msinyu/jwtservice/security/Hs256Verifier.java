@@ -0,0 +1,131 @@
+package com.msinyu.jwtservice.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+import javax.crypto.Mac;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+
+/**
+ * Verifier for compact HS256 tokens, used instead of the jjwt parser on the validation path.
+ * <p>
+ * The MAC is computed over the header and payload segments, copied as ASCII into a per-thread
+ * buffer, with a per-thread {@link Mac} that is only re-keyed when the key changes. The signature
+ * is decoded into a per-thread buffer and compared in constant time. The payload is not parsed
+ * here: the fields read by {@link UnverifiedToken} cover the time checks, and the returned claims
+ * only parse the payload when a claim beyond those is requested.
+ * <p>
+ * Unlike jjwt 0.9.1, only the canonical unpadded Base64url encoding of a signature is accepted,
+ * and tokens whose expiration or not before claims are not numeric times are rejected.
+ */
+public final class Hs256Verifier {
+
+    private static final String ALGORITHM = SignatureAlgorithm.HS256.getValue();
+    private static final int SIGNATURE_LENGTH = 32;
+    private static final int ENCODED_SIGNATURE_LENGTH = 43;
+    private static final int MAX_POOLED_INPUT = 8192;
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    private Hs256Verifier() {
+    }
+
+    /**
+     * Verifies an HS256 token.
+     *
+     * @param token      JWT token string.
+     * @param unverified Fields read from the same token without verification.
+     * @param key        HMAC key of the token's user.
+     * @param nowMillis  Current time in milliseconds since the epoch.
+     * @return Verified claims, or null if the token is not a valid, current HS256 token.
+     */
+    public static Claims verify(String token, UnverifiedToken unverified, Key key, long nowMillis) {
+        if (unverified == null || !ALGORITHM.equals(unverified.getAlgorithm()) || !unverified.hasReadableTimes()
+                || unverified.isExpired(nowMillis) || unverified.isPremature(nowMillis)) {
+            return null;
+        }
+        int signingInputEnd = token.lastIndexOf('.');
+        if (token.length() - signingInputEnd - 1 != ENCODED_SIGNATURE_LENGTH) {
+            return null;
+        }
+        State state = STATE.get();
+        if (!decodeSignature(token, signingInputEnd + 1, state.signature)) {
+            return null;
+        }
+        try {
+            Mac mac = state.mac(key);
+            byte[] input = signingInputEnd <= MAX_POOLED_INPUT ? state.input : new byte[signingInputEnd];
+            for (int i = 0; i < signingInputEnd; i++) {
+                input[i] = (byte) token.charAt(i);
+            }
+            mac.update(input, 0, signingInputEnd);
+            mac.doFinal(state.expected, 0);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            state.key = null;
+            return null;
+        }
+        if (!MessageDigest.isEqual(state.expected, state.signature)) {
+            return null;
+        }
+        return new LazyClaims(token, unverified);
+    }
+
+    /**
+     * Decodes a canonical, unpadded Base64url encoded signature.
+     *
+     * @param token JWT token string.
+     * @param start Start of the signature segment.
+     * @param out   Receives the signature bytes.
+     * @return False if the segment is not canonical Base64url.
+     */
+    private static boolean decodeSignature(String token, int start, byte[] out) {
+        int bits = 0;
+        int bitCount = 0;
+        int o = 0;
+        for (int i = start; i < token.length(); i++) {
+            int value = UnverifiedToken.base64UrlValue(token.charAt(i));
+            if (value < 0) {
+                return false;
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                out[o++] = (byte) (bits >> bitCount);
+            }
+        }
+        return (bits & ((1 << bitCount) - 1)) == 0;
+    }
+
+    /**
+     * Per-thread MAC and buffers.
+     */
+    private static final class State {
+        private final byte[] input = new byte[MAX_POOLED_INPUT];
+        private final byte[] signature = new byte[SIGNATURE_LENGTH];
+        private final byte[] expected = new byte[SIGNATURE_LENGTH];
+        private Mac mac;
+        private Key key;
+
+        /**
+         * Returns the thread's MAC, keyed with the given key.
+         *
+         * @param key HMAC key.
+         * @return Keyed MAC.
+         * @throws GeneralSecurityException If the key cannot be used for HMAC-SHA256.
+         */
+        private Mac mac(Key key) throws GeneralSecurityException {
+            if (mac == null) {
+                mac = Mac.getInstance(SigningKeyCache.HMAC_SHA256);
+            }
+            if (this.key != key) {
+                this.key = null;
+                mac.init(key);
+                this.key = key;
+            }
+            return mac;
+        }
+    }
+}
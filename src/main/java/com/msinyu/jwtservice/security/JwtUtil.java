@@ -1,7 +1,10 @@
 package com.msinyu.jwtservice.security;
 
+import com.msinyu.jwtservice.metrics.AuthMetrics;
 import com.msinyu.jwtservice.model.PasswordHistory;
 import com.msinyu.jwtservice.model.User;
+import com.msinyu.jwtservice.model.UserCredentials;
+import com.msinyu.jwtservice.service.UserService;
 import com.msinyu.jwtservice.util.EncryptionUtil;
 import io.jsonwebtoken.*;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,16 +12,50 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.nio.charset.StandardCharsets;
+import java.security.Key;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * Utility class for JWT operations.
+ * <p>
+ * Tokens are signed with HS256 and a per-user key by default. In ES256 mode they are signed with
+ * the active {@link ServiceKeyPairs service key pair} instead, so they can be verified offline
+ * against the published keys. ES256 tokens carry the user id and a claim derived from the user's
+ * random hash, which lets this service still reject tokens issued before a password change.
  */
 @Component
 public class JwtUtil {
 
+    /**
+     * Claim holding the user id in ES256 tokens, whose key id names the service key.
+     */
+    public static final String USER_ID_CLAIM = "uid";
+
+    /**
+     * Claim holding a digest of the user's random hash in ES256 tokens.
+     */
+    public static final String REVOCATION_CLAIM = "rev";
+
+    /**
+     * Separates the user id from the key version in the key id of HS256 tokens.
+     */
+    public static final char KEY_VERSION_SEPARATOR = '.';
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int REVOCATION_CLAIM_LENGTH = 16;
+    private static final int TOKEN_ID_LENGTH = 16;
+    private static final SecureRandom TOKEN_IDS = new SecureRandom();
+
     @Value("${jwt.service.key}")
     private String serviceKey;
 
@@ -28,6 +65,18 @@ public class JwtUtil {
     @Autowired
     private EncryptionUtil encryptionUtil;
 
+    @Autowired
+    private SigningKeyCache signingKeyCache;
+
+    @Autowired
+    private AuthMetrics authMetrics;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ServiceKeyPairs serviceKeyPairs;
+
     /**
      * Generates a JWT token for a user.
      *
@@ -35,49 +84,202 @@ public class JwtUtil {
      * @return JWT token string.
      */
     public String generateToken(User user) {
-        String userKey = generateUserKey(user);
-        return Jwts.builder()
-                .setSubject(user.getUsername())
+        long start = System.nanoTime();
+        try {
+            return buildToken(user.getId(), user.getUsername(), user.getRandomHash(), () -> resolveUserKey(user));
+        } finally {
+            authMetrics.getTokenSigningTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Generates a JWT token for a user known only by its credentials. Password vectors are
+     * only loaded when the signing key is not cached and the user has no key digest.
+     *
+     * @param credentials Credentials of the user for whom the token is generated.
+     * @return JWT token string.
+     */
+    public String generateToken(UserCredentials credentials) {
+        long start = System.nanoTime();
+        try {
+            return buildToken(credentials.getId(), credentials.getUsername(), credentials.getRandomHash(),
+                    () -> resolveUserKey(credentials));
+        } finally {
+            authMetrics.getTokenSigningTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Builds and signs a token, with the user's key or in ES256 mode with the active service key.
+     *
+     * @param userId     Id of the user.
+     * @param username   Username of the user, used as the subject.
+     * @param randomHash Random hash of the user.
+     * @param userKey    Supplies the signing key of the user; not called in ES256 mode.
+     * @return JWT token string.
+     */
+    private String buildToken(Long userId, String username, String randomHash, Supplier<Key> userKey) {
+        JwtBuilder builder = Jwts.builder()
+                .setId(newTokenId())
+                .setSubject(username)
                 .setIssuedAt(new Date())
-                .setExpiration(new Date(System.currentTimeMillis() + tokenExpiration))
-                .signWith(SignatureAlgorithm.HS256, userKey.getBytes(StandardCharsets.UTF_8))
+                .setExpiration(new Date(System.currentTimeMillis() + tokenExpiration));
+        if (serviceKeyPairs.isEnabled()) {
+            ServiceKeyPairs.ServiceKeyPair keyPair = serviceKeyPairs.getActive();
+            return builder
+                    .setHeaderParam(JwsHeader.KEY_ID, keyPair.getKeyId())
+                    .claim(USER_ID_CLAIM, userId)
+                    .claim(REVOCATION_CLAIM, revocationClaim(randomHash))
+                    .signWith(SignatureAlgorithm.ES256, keyPair.getPrivateKey())
+                    .compact();
+        }
+        return builder
+                .setHeaderParam(JwsHeader.KEY_ID, String.valueOf(userId) + KEY_VERSION_SEPARATOR + SigningKeyCache.keyVersion(randomHash))
+                .signWith(SignatureAlgorithm.HS256, userKey.get())
                 .compact();
     }
 
+    /**
+     * Generates a random token id, which lets a single token be revoked.
+     *
+     * @return Base64url encoded 128-bit token id.
+     */
+    private static String newTokenId() {
+        byte[] id = new byte[TOKEN_ID_LENGTH];
+        TOKEN_IDS.nextBytes(id);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(id);
+    }
+
+    /**
+     * Derives the revocation claim of a user: a truncated SHA-256 of the random hash, which
+     * changes whenever the random hash does without revealing it.
+     *
+     * @param randomHash Random hash of the user.
+     * @return Base64url encoded claim value.
+     */
+    public String revocationClaim(String randomHash) {
+        byte[] digest = sha256().digest(randomHash.getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, REVOCATION_CLAIM_LENGTH));
+    }
+
+    /**
+     * Checks whether a token, read without verification, claims to be signed with a service key.
+     *
+     * @param token Unverified token fields.
+     * @return True for ES256 tokens.
+     */
+    public boolean isServiceSigned(UnverifiedToken token) {
+        return isServiceSigned(token.getAlgorithm());
+    }
+
+    /**
+     * Checks whether a signature algorithm is the one used with service keys.
+     *
+     * @param algorithm Signature algorithm name.
+     * @return True for ES256.
+     */
+    private boolean isServiceSigned(String algorithm) {
+        return SignatureAlgorithm.ES256.getValue().equals(algorithm);
+    }
+
+    /**
+     * Resolves a published service public key.
+     *
+     * @param keyId Key id of the service key.
+     * @return Public key.
+     * @throws SignatureException If the key id is unknown or no longer published.
+     */
+    public Key resolveServiceKey(String keyId) {
+        Key key = serviceKeyPairs.getPublicKey(keyId);
+        if (key == null) {
+            throw new SignatureException("Unknown service signing key.");
+        }
+        return key;
+    }
+
+    /**
+     * Checks that a verified ES256 token was issued for the user's current random hash.
+     *
+     * @param claims     Verified claims.
+     * @param randomHash Current random hash of the user.
+     * @return True if the token has not been revoked by a password change.
+     */
+    public boolean isCurrent(Claims claims, String randomHash) {
+        return revocationClaim(randomHash).equals(claims.get(REVOCATION_CLAIM, String.class));
+    }
+
+    /**
+     * Resolves the signing key of the user from the cache, deriving it on a miss.
+     *
+     * @param user User object with its password histories.
+     * @return HMAC signing key.
+     */
+    public Key resolveUserKey(User user) {
+        return signingKeyCache.get(user.getId(), user.getUsername(), user.getRandomHash(), () -> {
+            if (user.getKeyDigest() != null) {
+                return generateUserKey(user.getRandomHash(), Collections.singletonList(user.getKeyDigest()));
+            }
+            List<String> vectors = new ArrayList<>(user.getPasswordHistories().size());
+            for (PasswordHistory history : user.getPasswordHistories()) {
+                vectors.add(history.getPasswordVector());
+            }
+            return generateUserKey(user.getRandomHash(), vectors);
+        });
+    }
+
+    /**
+     * Resolves the signing key of the user from the cache, deriving it on a miss. Password
+     * vectors are only loaded for users without a key digest.
+     *
+     * @param credentials Credentials of the user.
+     * @return HMAC signing key.
+     */
+    public Key resolveUserKey(UserCredentials credentials) {
+        return signingKeyCache.get(credentials.getId(), credentials.getUsername(), credentials.getRandomHash(), () -> {
+            if (credentials.getKeyDigest() != null) {
+                return generateUserKey(credentials.getRandomHash(), Collections.singletonList(credentials.getKeyDigest()));
+            }
+            return generateUserKey(credentials.getRandomHash(), userService.findPasswordVectors(credentials.getId()));
+        });
+    }
+
     /**
      * Generates a unique key for the user by concatenating the service key, user's random hash,
-     * and all of the user's password vectors, then applying a SHA-256 hash.
+     * and the user's key material, then applying a SHA-256 hash. The key material is the user's
+     * key digest, or all of the user's password vectors for users without one.
+     * The key is the hexadecimal digest as ASCII bytes, which keeps it compatible with
+     * tokens signed before keys were cached.
      *
-     * @param user User object.
-     * @return Concatenated and hashed key string.
+     * @param randomHash  Random hash of the user.
+     * @param keyMaterial Key digest, or password vectors of the user, newest first.
+     * @return Hex encoded SHA-256 digest as ASCII bytes.
      */
-    private String generateUserKey(User user) {
-        StringBuilder allVectors = new StringBuilder();
-        for (PasswordHistory history : user.getPasswordHistories()) {
-            allVectors.append(history.getPasswordVector());
+    private byte[] generateUserKey(String randomHash, List<String> keyMaterial) {
+        long start = System.nanoTime();
+        MessageDigest digest = sha256();
+        digest.update(serviceKey.getBytes(StandardCharsets.UTF_8));
+        digest.update(randomHash.getBytes(StandardCharsets.UTF_8));
+        for (String material : keyMaterial) {
+            digest.update(material.getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] hashBytes = digest.digest();
+        byte[] hex = new byte[hashBytes.length * 2];
+        for (int i = 0; i < hashBytes.length; i++) {
+            hex[2 * i] = (byte) HEX[(hashBytes[i] >> 4) & 0x0f];
+            hex[2 * i + 1] = (byte) HEX[hashBytes[i] & 0x0f];
         }
-        String combined = serviceKey + user.getRandomHash() + allVectors.toString();
-        return sha256(combined);
+        authMetrics.getKeyDerivationTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return hex;
     }
 
     /**
-     * Generates a SHA-256 hash of the input string.
+     * Creates a SHA-256 message digest.
      *
-     * @param input Input string.
-     * @return SHA-256 hashed string in hexadecimal format.
+     * @return SHA-256 MessageDigest.
      */
-    private String sha256(String input) {
+    private MessageDigest sha256() {
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hashBytes = digest.digest(input.getBytes(StandardCharsets.UTF_8));
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hashBytes) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1)
-                    hexString.append('0');
-                hexString.append(hex);
-            }
-            return hexString.toString();
+            return MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException e) {
             //TODO Consider better logic....
             throw new RuntimeException("SHA-256 algorithm not found.", e);
@@ -92,30 +294,61 @@ public class JwtUtil {
      * @return True if valid, else false.
      */
     public boolean validateToken(String token, User user) {
+        UnverifiedToken unverified = UnverifiedToken.parse(token);
+        if (unverified == null) {
+            return false;
+        }
         try {
-            String userKey = generateUserKey(user);
-            Jwts.parser().setSigningKey(userKey.getBytes(StandardCharsets.UTF_8)).parseClaimsJws(token);
-            return true;
+            Key key = isServiceSigned(unverified) ? resolveServiceKey(unverified.getKeyId()) : resolveUserKey(user);
+            Claims claims = verify(token, unverified, key);
+            return claims != null && (!isServiceSigned(unverified)
+                    || (user.getUsername().equals(claims.getSubject()) && isCurrent(claims, user.getRandomHash())));
         } catch (JwtException | IllegalArgumentException e) {
             return false;
         }
     }
 
     /**
-     * Extracts the username from the token.
+     * Verifies a JWT token against the key resolved from its unverified fields. HS256 tokens are
+     * verified by the {@link Hs256Verifier}, ES256 tokens by jjwt.
      *
-     * @param token JWT token string.
-     * @return Username.
+     * @param token      JWT token string.
+     * @param unverified Fields read from the same token without verification.
+     * @param key        Verification key.
+     * @return Verified claims, or null if the token is malformed, expired or its signature does not match.
      */
-    public String extractUsername(String token) {
+    public Claims verify(String token, UnverifiedToken unverified, Key key) {
+        if (!isServiceSigned(unverified)) {
+            return Hs256Verifier.verify(token, unverified, key, System.currentTimeMillis());
+        }
         try {
-            Claims claims = Jwts.parser()
-                    .setSigningKey(serviceKey.getBytes(StandardCharsets.UTF_8))
-                    .parseClaimsJws(token)
-                    .getBody();
-            return claims.getSubject();
+            return parseToken(token, key).getBody();
         } catch (JwtException | IllegalArgumentException e) {
             return null;
         }
     }
+
+    /**
+     * Verifies a JWT token against a known key.
+     *
+     * @param token JWT token string.
+     * @param key   Verification key, usually resolved from the {@link UnverifiedToken} fields.
+     * @return Verified header and claims.
+     * @throws JwtException If the token is malformed, expired or its signature does not match.
+     */
+    public Jws<Claims> parseToken(String token, Key key) {
+        return Jwts.parser().setSigningKey(key).parseClaimsJws(token);
+    }
+
+    /**
+     * Extracts the username from the token without verifying it. Only suitable for routing, such
+     * as choosing the key to verify the token with.
+     *
+     * @param token JWT token string.
+     * @return Unverified username, or null if the token is malformed or has no subject.
+     */
+    public String extractUsername(String token) {
+        UnverifiedToken unverified = UnverifiedToken.parse(token);
+        return unverified != null ? unverified.getSubject() : null;
+    }
 }
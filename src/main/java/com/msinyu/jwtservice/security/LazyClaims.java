@@ -0,0 +1,110 @@
+package com.msinyu.jwtservice.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.MalformedJwtException;
+import lombok.experimental.Delegate;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Claims of a verified token that parse the payload on first use. The subject, the token id and
+ * the time claims are answered from the fields already read by {@link UnverifiedToken}, so
+ * requests that only need those never parse the payload.
+ */
+final class LazyClaims implements Claims {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final String token;
+    private final UnverifiedToken unverified;
+    private Claims claims;
+
+    LazyClaims(String token, UnverifiedToken unverified) {
+        this.token = token;
+        this.unverified = unverified;
+    }
+
+    @Override
+    public String getSubject() {
+        return unverified.getSubject() != null ? unverified.getSubject() : claims().getSubject();
+    }
+
+    @Override
+    public String getId() {
+        return unverified.getTokenId() != null ? unverified.getTokenId() : claims().getId();
+    }
+
+    @Override
+    public Date getExpiration() {
+        return unverified.getExpiration() != null ? toDate(unverified.getExpiration()) : claims().getExpiration();
+    }
+
+    @Override
+    public Date getNotBefore() {
+        return unverified.getNotBefore() != null ? toDate(unverified.getNotBefore()) : claims().getNotBefore();
+    }
+
+    @Override
+    public Date getIssuedAt() {
+        return unverified.getIssuedAt() != null ? toDate(unverified.getIssuedAt()) : claims().getIssuedAt();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this || claims().equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return claims().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return claims().toString();
+    }
+
+    /**
+     * Parses the payload on first use.
+     *
+     * @return All claims of the token.
+     */
+    @Delegate(excludes = ScannedClaims.class)
+    private Claims claims() {
+        if (claims == null) {
+            int payloadStart = token.indexOf('.') + 1;
+            byte[] payload = UnverifiedToken.decode(token, payloadStart, token.indexOf('.', payloadStart));
+            try {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = OBJECT_MAPPER.readValue(payload, Map.class);
+                claims = Jwts.claims(map);
+            } catch (IOException e) {
+                throw new MalformedJwtException("Unable to read token claims.", e);
+            }
+        }
+        return claims;
+    }
+
+    private static Date toDate(long seconds) {
+        return new Date(seconds * 1000);
+    }
+
+    /**
+     * Claims answered without parsing the payload.
+     */
+    private interface ScannedClaims {
+        String getSubject();
+
+        String getId();
+
+        Date getExpiration();
+
+        Date getNotBefore();
+
+        Date getIssuedAt();
+    }
+}
@@ -0,0 +1,191 @@
+package com.msinyu.jwtservice.security;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.msinyu.jwtservice.dto.response.ErrorResponse;
+import com.msinyu.jwtservice.metrics.AuthMetrics;
+import com.msinyu.jwtservice.metrics.AuthMetrics.LoginOutcome;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rejects login attempts over the {@link LoginRateLimiter} limits with {@code 429 Too Many Requests}
+ * and a {@code Retry-After} header, before the request reaches the controller and any user lookup
+ * or BCrypt verification. The client address is checked first, then the username read from the
+ * request body, which is replayed to the controller. Bodies larger than a login request needs are
+ * rejected with {@code 413 Payload Too Large}, without being buffered.
+ */
+public class LoginRateLimitFilter extends OncePerRequestFilter {
+
+    private static final RequestMatcher LOGIN = new AntPathRequestMatcher("/api/auth/login", "POST");
+    private static final ErrorResponse TOO_MANY_ATTEMPTS = new ErrorResponse("Too many login attempts, please retry later.");
+    private static final ErrorResponse PAYLOAD_TOO_LARGE = new ErrorResponse("Request body too large.");
+
+    private final LoginRateLimiter loginRateLimiter;
+    private final ObjectMapper objectMapper;
+    private final AuthMetrics authMetrics;
+    private final int maxBodySize;
+
+    public LoginRateLimitFilter(LoginRateLimiter loginRateLimiter, ObjectMapper objectMapper, AuthMetrics authMetrics,
+                                int maxBodySize) {
+        this.loginRateLimiter = loginRateLimiter;
+        this.objectMapper = objectMapper;
+        this.authMetrics = authMetrics;
+        this.maxBodySize = maxBodySize;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !loginRateLimiter.isEnabled() || !LOGIN.matches(request);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (request.getContentLengthLong() > maxBodySize) {
+            rejectTooLarge(response);
+            return;
+        }
+        long wait = loginRateLimiter.tryAcquireAddress(request.getRemoteAddr());
+        if (wait > 0) {
+            reject(response, wait);
+            return;
+        }
+        byte[] body = request.getInputStream().readNBytes(maxBodySize + 1);
+        if (body.length > maxBodySize) {
+            rejectTooLarge(response);
+            return;
+        }
+        String username = readUsername(body);
+        if (username != null) {
+            wait = loginRateLimiter.tryAcquireUsername(username);
+            if (wait > 0) {
+                reject(response, wait);
+                return;
+            }
+        }
+        filterChain.doFilter(new CachedBodyRequest(request, body), response);
+    }
+
+    /**
+     * Reads the username of a login request body.
+     *
+     * @param body Request body.
+     * @return Username, or null if the body is not a JSON object with a string username.
+     */
+    private String readUsername(byte[] body) {
+        try {
+            JsonNode username = objectMapper.readTree(body).path("username");
+            return username.isTextual() ? username.asText() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Answers a rate limited login attempt.
+     *
+     * @param response  HTTP response.
+     * @param waitNanos Nanoseconds until the next attempt is allowed.
+     * @throws IOException If the response cannot be written.
+     */
+    private void reject(HttpServletResponse response, long waitNanos) throws IOException {
+        authMetrics.recordLogin(LoginOutcome.RATE_LIMITED);
+        long retryAfterSeconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), TOO_MANY_ATTEMPTS);
+    }
+
+    /**
+     * Answers a login request whose body exceeds the size limit.
+     *
+     * @param response HTTP response.
+     * @throws IOException If the response cannot be written.
+     */
+    private void rejectTooLarge(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.PAYLOAD_TOO_LARGE.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), PAYLOAD_TOO_LARGE);
+    }
+
+    /**
+     * Request whose body has already been read, replaying it to later readers.
+     */
+    private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+        private final byte[] body;
+
+        private CachedBodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public int read() {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return in.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() throws UnsupportedEncodingException {
+            String encoding = getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(getInputStream(),
+                    encoding != null ? encoding : StandardCharsets.UTF_8.name()));
+        }
+
+        @Override
+        public int getContentLength() {
+            return body.length;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return body.length;
+        }
+    }
+}
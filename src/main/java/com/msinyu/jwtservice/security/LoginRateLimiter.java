@@ -0,0 +1,88 @@
+package com.msinyu.jwtservice.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.msinyu.jwtservice.util.TokenBucket;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token buckets limiting login attempts per username and per client address.
+ * <p>
+ * Buckets are created on first use and evicted once idle for as long as a full refill takes,
+ * at which point a new bucket is indistinguishable from the evicted one. The number of buckets
+ * is also capped, so an attacker cycling through usernames or addresses cannot exhaust memory;
+ * under that pressure the least recently used buckets are evicted early and start over full.
+ */
+@Component
+public class LoginRateLimiter {
+
+    private final boolean enabled;
+    private final Buckets usernames;
+    private final Buckets addresses;
+
+    public LoginRateLimiter(@Value("${login.rate-limit.enabled}") boolean enabled,
+                            @Value("${login.rate-limit.username.capacity}") long usernameCapacity,
+                            @Value("${login.rate-limit.username.refill-interval}") long usernameRefillInterval,
+                            @Value("${login.rate-limit.address.capacity}") long addressCapacity,
+                            @Value("${login.rate-limit.address.refill-interval}") long addressRefillInterval,
+                            @Value("${login.rate-limit.max-keys}") long maxKeys) {
+        this.enabled = enabled;
+        this.usernames = new Buckets(usernameCapacity, usernameRefillInterval, maxKeys);
+        this.addresses = new Buckets(addressCapacity, addressRefillInterval, maxKeys);
+    }
+
+    /**
+     * Checks whether login attempts are limited.
+     *
+     * @return True if enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Takes a login attempt from the bucket of a client address.
+     *
+     * @param address Client address.
+     * @return 0 if allowed, otherwise the nanoseconds until the next attempt is allowed.
+     */
+    public long tryAcquireAddress(String address) {
+        return addresses.tryTake(address);
+    }
+
+    /**
+     * Takes a login attempt from the bucket of a username.
+     *
+     * @param username Username.
+     * @return 0 if allowed, otherwise the nanoseconds until the next attempt is allowed.
+     */
+    public long tryAcquireUsername(String username) {
+        return usernames.tryTake(username);
+    }
+
+    /**
+     * Token buckets of one kind of key, sharing a capacity and refill interval.
+     */
+    private static final class Buckets {
+        private final long capacity;
+        private final long refillNanos;
+        private final Cache<String, TokenBucket> cache;
+
+        private Buckets(long capacity, long refillInterval, long maxKeys) {
+            this.capacity = capacity;
+            this.refillNanos = TimeUnit.MILLISECONDS.toNanos(refillInterval);
+            this.cache = Caffeine.newBuilder()
+                    .maximumSize(maxKeys)
+                    .expireAfterAccess(capacity * refillNanos, TimeUnit.NANOSECONDS)
+                    .build();
+        }
+
+        private long tryTake(String key) {
+            long now = System.nanoTime();
+            return cache.get(key, k -> new TokenBucket(capacity, refillNanos, now)).tryTake(now);
+        }
+    }
+}
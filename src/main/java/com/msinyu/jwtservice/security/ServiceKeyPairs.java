@@ -0,0 +1,299 @@
+package com.msinyu.jwtservice.security;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Asymmetric service key pairs for ES256 token signing, whose public keys are published as a
+ * JSON Web Key Set so that resource servers can verify tokens without calling this service.
+ * <p>
+ * Pairs are loaded from a PKCS12 keystore: the active alias signs, and the public keys of all
+ * P-256 entries are published. Keys are rotated by adding an alias, switching the active alias on
+ * all replicas and removing the old alias once its tokens have expired. Without a keystore,
+ * pairs are generated and rotated every rotation interval. The next pair is published one
+ * interval before it starts signing, and retired pairs stay published until every token they
+ * signed has expired. Generated pairs are per instance, so several replicas need a keystore.
+ * <p>
+ * Key ids are RFC 7638 JWK thumbprints, so every replica derives the same id for the same key.
+ */
+@Slf4j
+@Component
+public class ServiceKeyPairs {
+
+    static final String ES256 = "ES256";
+
+    private static final String CURVE = "P-256";
+    private static final String CURVE_NAME = "secp256r1";
+    private static final int COORDINATE_LENGTH = 32;
+
+    private final boolean enabled;
+    private final boolean generated;
+    private final long tokenExpiration;
+
+    private volatile ServiceKeyPair active;
+    private volatile ServiceKeyPair next;
+    private volatile Map<String, ServiceKeyPair> publishedKeys = Collections.emptyMap();
+
+    public ServiceKeyPairs(@Value("${jwt.signing.algorithm}") String algorithm,
+                           @Value("${jwt.signing.keystore.path}") String keystorePath,
+                           @Value("${jwt.signing.keystore.type}") String keystoreType,
+                           @Value("${jwt.signing.keystore.password}") String keystorePassword,
+                           @Value("${jwt.signing.key.active-alias}") String activeAlias,
+                           @Value("${jwt.token.expiration}") long tokenExpiration) throws Exception {
+        this.enabled = ES256.equalsIgnoreCase(algorithm);
+        this.generated = keystorePath.isEmpty();
+        this.tokenExpiration = tokenExpiration;
+        if (!enabled) {
+            return;
+        }
+        if (generated) {
+            log.warn("No token signing keystore configured, generating ES256 key pairs. "
+                    + "Tokens signed by this instance cannot be verified with the keys of other replicas.");
+            active = generate();
+            next = generate();
+            publish(active, next);
+        } else {
+            Map<String, ServiceKeyPair> keys = loadKeys(keystorePath, keystoreType, keystorePassword.toCharArray());
+            active = keys.get(activeAlias);
+            if (active == null) {
+                throw new IllegalStateException("Active token signing key '" + activeAlias + "' not found in keystore.");
+            }
+            publishedKeys = Collections.unmodifiableMap(index(keys.values()));
+        }
+        log.info("Signing tokens with ES256 key {}", active.getKeyId());
+    }
+
+    /**
+     * Checks whether tokens are signed with the service key pairs instead of per-user keys.
+     *
+     * @return True in ES256 mode.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the pair currently used for signing.
+     *
+     * @return Active key pair, or null when not in ES256 mode.
+     */
+    public ServiceKeyPair getActive() {
+        return active;
+    }
+
+    /**
+     * Looks up a published public key by key id.
+     *
+     * @param keyId Key id from a token header.
+     * @return Public key, or null if the key id is unknown or retired.
+     */
+    public ECPublicKey getPublicKey(String keyId) {
+        ServiceKeyPair pair = keyId != null ? publishedKeys.get(keyId) : null;
+        return pair != null ? pair.getPublicKey() : null;
+    }
+
+    /**
+     * Renders the published public keys as JSON Web Keys.
+     *
+     * @return One JWK per published key, the active key first.
+     */
+    public List<Map<String, String>> toJwks() {
+        List<Map<String, String>> jwks = new ArrayList<>(publishedKeys.size());
+        for (ServiceKeyPair pair : publishedKeys.values()) {
+            Map<String, String> jwk = new LinkedHashMap<>();
+            jwk.put("kty", "EC");
+            jwk.put("crv", CURVE);
+            jwk.put("x", coordinate(pair.getPublicKey().getW().getAffineX()));
+            jwk.put("y", coordinate(pair.getPublicKey().getW().getAffineY()));
+            jwk.put("use", "sig");
+            jwk.put("alg", ES256);
+            jwk.put("kid", pair.getKeyId());
+            jwks.add(jwk);
+        }
+        return jwks;
+    }
+
+    /**
+     * Activates the pre-published next pair and publishes a new next pair. Pairs retired more than
+     * a token lifetime ago are withdrawn. Only generated pairs are rotated.
+     */
+    @Scheduled(fixedDelayString = "${jwt.signing.key.rotation-interval}",
+            initialDelayString = "${jwt.signing.key.rotation-interval}")
+    public void rotate() throws GeneralSecurityException {
+        if (!enabled || !generated) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        ServiceKeyPair retired = active.retire(now);
+        ServiceKeyPair activated = next;
+        ServiceKeyPair upcoming = generate();
+
+        List<ServiceKeyPair> keys = new ArrayList<>();
+        keys.add(activated);
+        keys.add(upcoming);
+        keys.add(retired);
+        for (ServiceKeyPair pair : publishedKeys.values()) {
+            if (pair.getRetiredAt() > 0 && pair.getRetiredAt() + tokenExpiration > now) {
+                keys.add(pair);
+            }
+        }
+        publish(keys.toArray(new ServiceKeyPair[0]));
+        next = upcoming;
+        active = activated;
+        log.info("Rotated ES256 token signing key to {}", activated.getKeyId());
+    }
+
+    /**
+     * Replaces the published keys.
+     *
+     * @param keys Keys to publish, in JWKS order.
+     */
+    private void publish(ServiceKeyPair... keys) {
+        List<ServiceKeyPair> list = new ArrayList<>(keys.length);
+        Collections.addAll(list, keys);
+        publishedKeys = Collections.unmodifiableMap(index(list));
+    }
+
+    /**
+     * Indexes key pairs by key id, keeping their order.
+     *
+     * @param pairs Key pairs.
+     * @return Key pairs by key id.
+     */
+    private static Map<String, ServiceKeyPair> index(Iterable<ServiceKeyPair> pairs) {
+        Map<String, ServiceKeyPair> keys = new LinkedHashMap<>();
+        for (ServiceKeyPair pair : pairs) {
+            keys.putIfAbsent(pair.getKeyId(), pair);
+        }
+        return keys;
+    }
+
+    /**
+     * Generates a P-256 key pair.
+     *
+     * @return New key pair.
+     * @throws GeneralSecurityException If EC key generation is not available.
+     */
+    private static ServiceKeyPair generate() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec(CURVE_NAME));
+        KeyPair keyPair = generator.generateKeyPair();
+        return new ServiceKeyPair((ECPrivateKey) keyPair.getPrivate(), (ECPublicKey) keyPair.getPublic(), 0);
+    }
+
+    /**
+     * Loads all P-256 key pairs of a keystore, by alias.
+     *
+     * @param path     Path of the keystore file.
+     * @param type     Keystore type.
+     * @param password Password of the keystore and its keys.
+     * @return Key pairs by alias, in alias order.
+     * @throws Exception If the keystore cannot be read.
+     */
+    private static Map<String, ServiceKeyPair> loadKeys(String path, String type, char[] password) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(type);
+        try (InputStream in = Files.newInputStream(Paths.get(path))) {
+            keyStore.load(in, password);
+        }
+        Map<String, ServiceKeyPair> keys = new LinkedHashMap<>();
+        Enumeration<String> aliases = keyStore.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            if (!keyStore.isKeyEntry(alias)) {
+                continue;
+            }
+            PrivateKey key = (PrivateKey) keyStore.getKey(alias, password);
+            Certificate certificate = keyStore.getCertificate(alias);
+            if (key instanceof ECPrivateKey && certificate != null
+                    && certificate.getPublicKey() instanceof ECPublicKey
+                    && ((ECPrivateKey) key).getParams().getCurve().getField().getFieldSize() == COORDINATE_LENGTH * 8) {
+                keys.put(alias, new ServiceKeyPair((ECPrivateKey) key, (ECPublicKey) certificate.getPublicKey(), 0));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Encodes a curve coordinate as fixed length, unsigned big-endian Base64url.
+     *
+     * @param value Coordinate.
+     * @return Encoded coordinate.
+     */
+    private static String coordinate(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        byte[] fixed = new byte[COORDINATE_LENGTH];
+        int length = Math.min(bytes.length, COORDINATE_LENGTH);
+        System.arraycopy(bytes, bytes.length - length, fixed, COORDINATE_LENGTH - length, length);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(fixed);
+    }
+
+    /**
+     * Computes the RFC 7638 JWK thumbprint of a public key.
+     *
+     * @param publicKey P-256 public key.
+     * @return Base64url encoded SHA-256 thumbprint.
+     */
+    private static String thumbprint(ECPublicKey publicKey) {
+        String canonical = "{\"crv\":\"" + CURVE + "\",\"kty\":\"EC\",\"x\":\""
+                + coordinate(publicKey.getW().getAffineX()) + "\",\"y\":\""
+                + coordinate(publicKey.getW().getAffineY()) + "\"}";
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 algorithm not found.", e);
+        }
+    }
+
+    /**
+     * A service key pair and its key id.
+     */
+    @Getter
+    public static final class ServiceKeyPair {
+        private final String keyId;
+        private final ECPrivateKey privateKey;
+        private final ECPublicKey publicKey;
+
+        /**
+         * Time the pair stopped signing, or 0 while it has not.
+         */
+        private final long retiredAt;
+
+        private ServiceKeyPair(ECPrivateKey privateKey, ECPublicKey publicKey, long retiredAt) {
+            this.keyId = thumbprint(publicKey);
+            this.privateKey = privateKey;
+            this.publicKey = publicKey;
+            this.retiredAt = retiredAt;
+        }
+
+        private ServiceKeyPair retire(long now) {
+            return new ServiceKeyPair(privateKey, publicKey, now);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.msinyu.jwtservice.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of derived per-user HMAC signing keys.
+ * <p>
+ * Entries are indexed by user id and only served while the user's random hash still matches,
+ * so a password change (which rotates the random hash) can never be answered with a stale key.
+ * Stateless validation only knows the key version carried in the token's key id and misses on an
+ * entry of another version; the user is then loaded, which replaces the entry if it is stale.
+ * A password change made on another replica is therefore only seen here once a token of the new
+ * version arrives or the entry expires, so the TTL bounds how long tokens signed before the change
+ * may still verify on this replica.
+ */
+@Component
+public class SigningKeyCache {
+
+    static final String HMAC_SHA256 = "HmacSHA256";
+    private static final int KEY_VERSION_LENGTH = 8;
+
+    private final Cache<Long, Entry> cache;
+    private final Counter hits;
+    private final Counter misses;
+
+    public SigningKeyCache(@Value("${jwt.key-cache.max-size}") long maxSize,
+                           @Value("${jwt.key-cache.ttl}") long ttl,
+                           MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                .build();
+        this.hits = Counter.builder("jwt.signing.key.cache.requests")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("jwt.signing.key.cache.requests")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        Gauge.builder("jwt.signing.key.cache.size", cache, Cache::estimatedSize)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the signing key for the user, deriving and caching it on a miss.
+     *
+     * @param userId     Id of the user.
+     * @param username   Username of the user.
+     * @param randomHash Current random hash of the user.
+     * @param derivation Supplies the raw key material when the key is not cached.
+     * @return Signing key.
+     */
+    public SecretKeySpec get(Long userId, String username, String randomHash, Supplier<byte[]> derivation) {
+        if (userId == null) {
+            return new SecretKeySpec(derivation.get(), HMAC_SHA256);
+        }
+        Entry entry = cache.getIfPresent(userId);
+        if (entry != null && entry.randomHash.equals(randomHash)) {
+            hits.increment();
+            return entry.key;
+        }
+        misses.increment();
+        SecretKeySpec key = new SecretKeySpec(derivation.get(), HMAC_SHA256);
+        cache.put(userId, new Entry(username, randomHash, keyVersion(randomHash), key));
+        return key;
+    }
+
+    /**
+     * Looks up the cached signing key of a user without deriving it.
+     * Used by stateless validation, where the user is only known from the token itself.
+     *
+     * An entry of another key version is a miss: either the entry or the token is stale.
+     *
+     * @param userId     Id of the user.
+     * @param username   Username the key must belong to.
+     * @param keyVersion Key version named by the token.
+     * @return Signing key, or null if not cached.
+     */
+    public SecretKeySpec getIfPresent(Long userId, String username, String keyVersion) {
+        Entry entry = cache.getIfPresent(userId);
+        if (entry != null && entry.username.equals(username) && entry.keyVersion.equals(keyVersion)) {
+            hits.increment();
+            return entry.key;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Derives the key version of a random hash: a truncated SHA-256, which changes whenever the
+     * random hash does without revealing it.
+     *
+     * @param randomHash Random hash of the user.
+     * @return Base64url encoded key version.
+     */
+    public static String keyVersion(String randomHash) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(randomHash.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, KEY_VERSION_LENGTH));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 algorithm not found.", e);
+        }
+    }
+
+    /**
+     * Drops the cached key of a user.
+     *
+     * @param userId Id of the user.
+     */
+    public void invalidate(Long userId) {
+        if (userId != null) {
+            cache.invalidate(userId);
+        }
+    }
+
+    private static final class Entry {
+        private final String username;
+        private final String randomHash;
+        private final String keyVersion;
+        private final SecretKeySpec key;
+
+        private Entry(String username, String randomHash, String keyVersion, SecretKeySpec key) {
+            this.username = username;
+            this.randomHash = randomHash;
+            this.keyVersion = keyVersion;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,604 @@
+package com.msinyu.jwtservice.security;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Header and payload fields of a compact JWS, read without verifying its signature.
+ * <p>
+ * Only the fields needed to pick the verification key, to check the token's validity period
+ * and whether it has been revoked are extracted: {@code alg} and {@code kid} from the header,
+ * {@code sub}, {@code jti}, {@code exp}, {@code nbf} and {@code iat} from the payload. Segments
+ * are Base64url decoded straight from the token string and scanned in place, without splitting
+ * the token or building maps or JSON trees. Nothing read here may be trusted until the token has
+ * been verified.
+ */
+@Getter
+public final class UnverifiedToken {
+
+    private static final int MAX_DEPTH = 32;
+    private static final int EXPIRATION = 1;
+    private static final int NOT_BEFORE = 2;
+    private static final int ISSUED_AT = 4;
+    private static final long MAX_EXPIRATION = Long.MAX_VALUE / 1000;
+    private static final byte[] BASE64URL = new byte[128];
+
+    static {
+        Arrays.fill(BASE64URL, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64URL[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    /**
+     * Signature algorithm from the header.
+     */
+    private String algorithm;
+
+    /**
+     * Key id from the header.
+     */
+    private String keyId;
+
+    /**
+     * Subject from the payload.
+     */
+    private String subject;
+
+    /**
+     * Token id from the payload.
+     */
+    private String tokenId;
+
+    /**
+     * Expiration from the payload, in seconds since the epoch.
+     */
+    private Long expiration;
+
+    /**
+     * Not before time from the payload, in seconds since the epoch.
+     */
+    private Long notBefore;
+
+    /**
+     * Issue time from the payload, in seconds since the epoch.
+     */
+    private Long issuedAt;
+
+    /**
+     * Time claims present with a value that is not a non-negative number, one bit per claim.
+     */
+    @Getter(AccessLevel.NONE)
+    private int unreadableTimes;
+
+    private UnverifiedToken() {
+    }
+
+    /**
+     * Reads the routing fields of a compact JWS.
+     *
+     * @param token JWT token string.
+     * @return Parsed fields, or null if the token is not three dot-separated segments whose
+     * header and payload are Base64url encoded JSON objects.
+     */
+    public static UnverifiedToken parse(String token) {
+        if (token == null) {
+            return null;
+        }
+        int headerEnd = token.indexOf('.');
+        if (headerEnd <= 0) {
+            return null;
+        }
+        int payloadEnd = token.indexOf('.', headerEnd + 1);
+        if (payloadEnd < 0 || token.indexOf('.', payloadEnd + 1) >= 0) {
+            return null;
+        }
+        byte[] header = decode(token, 0, headerEnd);
+        byte[] payload = decode(token, headerEnd + 1, payloadEnd);
+        if (header == null || payload == null) {
+            return null;
+        }
+        UnverifiedToken result = new UnverifiedToken();
+        if (!new Scanner(header, result, true).scanObject() || !new Scanner(payload, result, false).scanObject()) {
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether the token has expired. Tokens without a readable expiration are left to the
+     * full verification.
+     *
+     * @param nowMillis Current time in milliseconds since the epoch.
+     * @return True if the token has definitely expired.
+     */
+    public boolean isExpired(long nowMillis) {
+        return expiration != null && nowMillis > expiration * 1000;
+    }
+
+    /**
+     * Checks whether the token is not yet valid.
+     *
+     * @param nowMillis Current time in milliseconds since the epoch.
+     * @return True if the token has a not before time in the future.
+     */
+    public boolean isPremature(long nowMillis) {
+        return notBefore != null && nowMillis < notBefore * 1000;
+    }
+
+    /**
+     * Checks whether the expiration and not before claims, when present, are readable times.
+     * Tokens with unreadable times are never issued by this service.
+     *
+     * @return True if neither claim is present with a value other than a time or null.
+     */
+    public boolean hasReadableTimes() {
+        return (unreadableTimes & (EXPIRATION | NOT_BEFORE)) == 0;
+    }
+
+    /**
+     * Looks up the value of a Base64url character.
+     *
+     * @param c Character.
+     * @return Six bit value, or -1 if the character is not in the Base64url alphabet.
+     */
+    static int base64UrlValue(char c) {
+        return c < 128 ? BASE64URL[c] : -1;
+    }
+
+    /**
+     * Decodes a range of unpadded Base64url characters.
+     *
+     * @param s     String holding the range.
+     * @param start Start of the range, inclusive.
+     * @param end   End of the range, exclusive.
+     * @return Decoded bytes, or null if the range is not valid Base64url.
+     */
+    static byte[] decode(String s, int start, int end) {
+        int length = end - start;
+        if (length % 4 == 1) {
+            return null;
+        }
+        byte[] out = new byte[length / 4 * 3 + Math.max(0, length % 4 - 1)];
+        int bits = 0;
+        int bitCount = 0;
+        int o = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            int value = base64UrlValue(c);
+            if (value < 0) {
+                return null;
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                out[o++] = (byte) (bits >> bitCount);
+            }
+        }
+        if ((bits & ((1 << bitCount) - 1)) != 0) {
+            return null;
+        }
+        return out;
+    }
+
+    /**
+     * Single pass scanner over a decoded JSON object. Members of interest are stored in the
+     * target, all others are validated and skipped. Duplicate members overwrite earlier ones.
+     */
+    private static final class Scanner {
+        private final byte[] json;
+        private final UnverifiedToken target;
+        private final boolean header;
+        private int pos;
+        private boolean escaped;
+
+        private Scanner(byte[] json, UnverifiedToken target, boolean header) {
+            this.json = json;
+            this.target = target;
+            this.header = header;
+        }
+
+        /**
+         * Scans the top-level object, which must span the whole input.
+         *
+         * @return True if the input is a well-formed JSON object.
+         */
+        private boolean scanObject() {
+            skipWhitespace();
+            if (!consume('{')) {
+                return false;
+            }
+            skipWhitespace();
+            if (!consume('}')) {
+                do {
+                    skipWhitespace();
+                    int keyStart = pos + 1;
+                    int keyEnd = skipString();
+                    if (keyEnd < 0) {
+                        return false;
+                    }
+                    boolean keyEscaped = escaped;
+                    skipWhitespace();
+                    if (!consume(':')) {
+                        return false;
+                    }
+                    skipWhitespace();
+                    if (!member(keyStart, keyEnd, keyEscaped)) {
+                        return false;
+                    }
+                    skipWhitespace();
+                } while (consume(','));
+                if (!consume('}')) {
+                    return false;
+                }
+            }
+            skipWhitespace();
+            return pos == json.length;
+        }
+
+        /**
+         * Reads or skips the value of a top-level member.
+         *
+         * @param keyStart   Start of the member name.
+         * @param keyEnd     End of the member name.
+         * @param keyEscaped Whether the member name contains escapes.
+         * @return True if the value is well-formed.
+         */
+        private boolean member(int keyStart, int keyEnd, boolean keyEscaped) {
+            String name = keyEscaped ? unescape(keyStart, keyEnd) : null;
+            if (header && isName(name, keyStart, keyEnd, "alg")) {
+                return readString(value -> target.algorithm = value);
+            }
+            if (header && isName(name, keyStart, keyEnd, "kid")) {
+                return readString(value -> target.keyId = value);
+            }
+            if (!header && isName(name, keyStart, keyEnd, "sub")) {
+                return readString(value -> target.subject = value);
+            }
+            if (!header && isName(name, keyStart, keyEnd, "jti")) {
+                return readString(value -> target.tokenId = value);
+            }
+            if (!header && isName(name, keyStart, keyEnd, "exp")) {
+                return readTime(EXPIRATION, value -> target.expiration = value);
+            }
+            if (!header && isName(name, keyStart, keyEnd, "nbf")) {
+                return readTime(NOT_BEFORE, value -> target.notBefore = value);
+            }
+            if (!header && isName(name, keyStart, keyEnd, "iat")) {
+                return readTime(ISSUED_AT, value -> target.issuedAt = value);
+            }
+            return skipValue(1);
+        }
+
+        /**
+         * Compares a member name with an expected name.
+         *
+         * @param unescaped Unescaped member name, or null to compare the raw bytes.
+         * @param start     Start of the raw member name.
+         * @param end       End of the raw member name.
+         * @param expected  Expected ASCII name.
+         * @return True if the names are equal.
+         */
+        private boolean isName(String unescaped, int start, int end, String expected) {
+            if (unescaped != null) {
+                return unescaped.equals(expected);
+            }
+            if (end - start != expected.length()) {
+                return false;
+            }
+            for (int i = 0; i < expected.length(); i++) {
+                if (json[start + i] != expected.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Reads a string value. Values of other types are skipped and stored as null.
+         *
+         * @param setter Receives the value.
+         * @return True if the value is well-formed.
+         */
+        private boolean readString(Consumer<String> setter) {
+            if (pos < json.length && json[pos] == '"') {
+                int start = pos + 1;
+                int end = skipString();
+                if (end < 0) {
+                    return false;
+                }
+                setter.accept(escaped ? unescape(start, end) : new String(json, start, end - start, StandardCharsets.UTF_8));
+                return true;
+            }
+            setter.accept(null);
+            return skipValue(1);
+        }
+
+        /**
+         * Reads a time claim. Non-numeric or out of range values are skipped, stored as null and
+         * flagged as unreadable; a null value is stored as null.
+         *
+         * @param claim  Bit of the claim in the unreadable times.
+         * @param setter Receives the value.
+         * @return True if the value is well-formed.
+         */
+        private boolean readTime(int claim, Consumer<Long> setter) {
+            int start = pos;
+            Long value = null;
+            boolean wellFormed;
+            if (pos < json.length && (json[pos] == '-' || isDigit(json[pos]))) {
+                wellFormed = skipNumber();
+                value = wellFormed ? toSeconds(start, pos) : null;
+            } else {
+                wellFormed = skipValue(1);
+            }
+            boolean unreadable = value == null && !(pos - start == 4 && json[start] == 'n');
+            target.unreadableTimes = unreadable ? target.unreadableTimes | claim : target.unreadableTimes & ~claim;
+            setter.accept(value);
+            return wellFormed;
+        }
+
+        /**
+         * Converts a JSON number to whole seconds, truncating fractions.
+         *
+         * @param start Start of the number.
+         * @param end   End of the number.
+         * @return Seconds, or null if out of range.
+         */
+        private Long toSeconds(int start, int end) {
+            long value = 0;
+            boolean integer = json[start] != '-' && end - start <= 15;
+            for (int i = start; integer && i < end; i++) {
+                if (!isDigit(json[i])) {
+                    integer = false;
+                } else {
+                    value = value * 10 + (json[i] - '0');
+                }
+            }
+            if (!integer) {
+                BigDecimal decimal;
+                try {
+                    decimal = new BigDecimal(new String(json, start, end - start, StandardCharsets.US_ASCII));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                if (decimal.signum() < 0 || decimal.compareTo(BigDecimal.valueOf(MAX_EXPIRATION)) > 0) {
+                    return null;
+                }
+                value = decimal.longValue();
+            }
+            return value;
+        }
+
+        /**
+         * Validates and skips any JSON value.
+         *
+         * @param depth Nesting depth of the value.
+         * @return True if the value is well-formed.
+         */
+        private boolean skipValue(int depth) {
+            if (pos >= json.length || depth > MAX_DEPTH) {
+                return false;
+            }
+            byte b = json[pos];
+            if (b == '"') {
+                return skipString() >= 0;
+            }
+            if (b == '{') {
+                return skipContainer(depth, '}', true);
+            }
+            if (b == '[') {
+                return skipContainer(depth, ']', false);
+            }
+            if (b == '-' || isDigit(b)) {
+                return skipNumber();
+            }
+            return skipLiteral("true") || skipLiteral("false") || skipLiteral("null");
+        }
+
+        /**
+         * Validates and skips a nested object or array.
+         *
+         * @param depth  Nesting depth of the container.
+         * @param close  Closing bracket.
+         * @param object Whether members are name/value pairs.
+         * @return True if the container is well-formed.
+         */
+        private boolean skipContainer(int depth, char close, boolean object) {
+            pos++;
+            skipWhitespace();
+            if (consume(close)) {
+                return true;
+            }
+            do {
+                skipWhitespace();
+                if (object) {
+                    if (skipString() < 0) {
+                        return false;
+                    }
+                    skipWhitespace();
+                    if (!consume(':')) {
+                        return false;
+                    }
+                    skipWhitespace();
+                }
+                if (!skipValue(depth + 1)) {
+                    return false;
+                }
+                skipWhitespace();
+            } while (consume(','));
+            return consume(close);
+        }
+
+        /**
+         * Validates and skips a string, recording whether it contains escapes.
+         *
+         * @return Position of the closing quote, or -1 if the string is malformed.
+         */
+        private int skipString() {
+            if (pos >= json.length || json[pos] != '"') {
+                return -1;
+            }
+            escaped = false;
+            pos++;
+            while (pos < json.length) {
+                int b = json[pos] & 0xff;
+                if (b == '"') {
+                    return pos++;
+                }
+                if (b < 0x20) {
+                    return -1;
+                }
+                if (b == '\\') {
+                    escaped = true;
+                    if (++pos >= json.length) {
+                        return -1;
+                    }
+                    byte e = json[pos];
+                    if (e == 'u') {
+                        if (pos + 4 >= json.length) {
+                            return -1;
+                        }
+                        for (int i = 1; i <= 4; i++) {
+                            if (Character.digit(json[pos + i], 16) < 0) {
+                                return -1;
+                            }
+                        }
+                        pos += 4;
+                    } else if ("\"\\/bfnrt".indexOf(e) < 0) {
+                        return -1;
+                    }
+                }
+                pos++;
+            }
+            return -1;
+        }
+
+        /**
+         * Decodes a validated string containing escapes.
+         *
+         * @param start Start of the string content.
+         * @param end   Position of the closing quote.
+         * @return Decoded string.
+         */
+        private String unescape(int start, int end) {
+            StringBuilder sb = new StringBuilder(end - start);
+            int runStart = start;
+            int i = start;
+            while (i < end) {
+                if (json[i] != '\\') {
+                    i++;
+                    continue;
+                }
+                sb.append(new String(json, runStart, i - runStart, StandardCharsets.UTF_8));
+                byte e = json[i + 1];
+                switch (e) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        sb.append((char) Integer.parseInt(new String(json, i + 2, 4, StandardCharsets.US_ASCII), 16));
+                        i += 4;
+                        break;
+                    default: sb.append((char) e); break;
+                }
+                i += 2;
+                runStart = i;
+            }
+            sb.append(new String(json, runStart, end - runStart, StandardCharsets.UTF_8));
+            return sb.toString();
+        }
+
+        /**
+         * Validates and skips a number.
+         *
+         * @return True if the number is well-formed.
+         */
+        private boolean skipNumber() {
+            consume('-');
+            if (consume('0')) {
+                // No leading zeros
+            } else if (!skipDigits()) {
+                return false;
+            }
+            if (consume('.') && !skipDigits()) {
+                return false;
+            }
+            if (consume('e') || consume('E')) {
+                if (!consume('+')) {
+                    consume('-');
+                }
+                return skipDigits();
+            }
+            return true;
+        }
+
+        /**
+         * Skips one or more digits.
+         *
+         * @return True if at least one digit was skipped.
+         */
+        private boolean skipDigits() {
+            int start = pos;
+            while (pos < json.length && isDigit(json[pos])) {
+                pos++;
+            }
+            return pos > start;
+        }
+
+        /**
+         * Skips a literal if it comes next.
+         *
+         * @param literal Literal to skip.
+         * @return True if the literal was skipped.
+         */
+        private boolean skipLiteral(String literal) {
+            if (pos + literal.length() > json.length) {
+                return false;
+            }
+            for (int i = 0; i < literal.length(); i++) {
+                if (json[pos + i] != literal.charAt(i)) {
+                    return false;
+                }
+            }
+            pos += literal.length();
+            return true;
+        }
+
+        /**
+         * Skips JSON whitespace.
+         */
+        private void skipWhitespace() {
+            while (pos < json.length && (json[pos] == ' ' || json[pos] == '\t' || json[pos] == '\n' || json[pos] == '\r')) {
+                pos++;
+            }
+        }
+
+        /**
+         * Skips a character if it comes next.
+         *
+         * @param c Character to skip.
+         * @return True if the character was skipped.
+         */
+        private boolean consume(char c) {
+            if (pos < json.length && json[pos] == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private static boolean isDigit(byte b) {
+            return b >= '0' && b <= '9';
+        }
+    }
+}
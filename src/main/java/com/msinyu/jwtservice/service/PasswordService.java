@@ -1,30 +1,156 @@
 package com.msinyu.jwtservice.service;
 
+import com.msinyu.jwtservice.metrics.AuthMetrics;
 import com.msinyu.jwtservice.model.PasswordHistory;
 import com.msinyu.jwtservice.model.User;
-import com.msinyu.jwtservice.util.MathUtil;
-import com.msinyu.jwtservice.util.secure.SecureMatrix;
+import com.msinyu.jwtservice.util.PasswordVectorCodec;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.security.crypto.bcrypt.BCrypt;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Base64;
-import java.util.zip.Deflater;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Service for handling password operations.
  */
+@Slf4j
 @Service
 public class PasswordService {
 
-    private static final int LOG_ROUND = 12;
+    private static final int MAX_LOG_ROUNDS = 31;
+    private static final int CALIBRATION_SAMPLES = 3;
     private static final SecureRandom random = new SecureRandom();
     private static final int MAX_PASSWORD_HISTORY = 5; // Limit to last 5 passwords
 
+    /**
+     * Version prefix of key digests. Digests with another prefix are recomputed on the next login.
+     */
+    public static final String KEY_DIGEST_PREFIX = "v1:";
+
+    @Autowired
+    private PasswordVectorCodec passwordVectorCodec;
+
+    @Autowired
+    private AuthMetrics authMetrics;
+
+    /**
+     * Configured BCrypt cost; 0 calibrates the cost to the target hash time at startup.
+     */
+    @Value("${password.bcrypt.cost}")
+    private int configuredLogRounds;
+
+    @Value("${password.bcrypt.min-cost}")
+    private int minLogRounds;
+
+    @Value("${password.bcrypt.target-millis}")
+    private long targetMillis;
+
+    private volatile int logRounds;
+
+    /**
+     * Hash at the current cost that no password matches, verified for unknown users.
+     */
+    private volatile String dummyHash;
+
     @Autowired
-    private MathUtil mathUtil;
+    @Qualifier("passwordHashingExecutor")
+    private ThreadPoolTaskExecutor passwordHashingExecutor;
+
+    @Autowired
+    @Qualifier("passwordContinuationExecutor")
+    private Executor passwordContinuationExecutor;
+
+    /**
+     * Determines the BCrypt cost used for new hashes.
+     */
+    @PostConstruct
+    public void initLogRounds() {
+        if (configuredLogRounds > 0) {
+            logRounds = configuredLogRounds;
+        } else {
+            logRounds = calibrateLogRounds();
+        }
+        byte[] unguessable = new byte[32];
+        random.nextBytes(unguessable);
+        dummyHash = BCrypt.hashpw(Base64.getEncoder().encodeToString(unguessable), BCrypt.gensalt(logRounds, random));
+        log.info("Using BCrypt cost {}", logRounds);
+    }
+
+    /**
+     * Measures BCrypt at the minimum cost on this host and picks the highest cost whose
+     * estimated hash time stays within the target. Each cost increment doubles the work.
+     *
+     * @return Calibrated BCrypt cost.
+     */
+    private int calibrateLogRounds() {
+        String salt = BCrypt.gensalt(minLogRounds, random);
+        BCrypt.hashpw("calibration", salt);
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < CALIBRATION_SAMPLES; i++) {
+            long start = System.nanoTime();
+            BCrypt.hashpw("calibration", salt);
+            fastest = Math.min(fastest, System.nanoTime() - start);
+        }
+
+        long targetNanos = targetMillis * 1_000_000L;
+        int rounds = minLogRounds;
+        long estimate = fastest;
+        while (rounds < MAX_LOG_ROUNDS && estimate * 2 <= targetNanos) {
+            estimate *= 2;
+            rounds++;
+        }
+        log.info("Calibrated BCrypt cost {} (cost {} took {} ms, target {} ms)",
+                rounds, minLogRounds, fastest / 1_000_000, targetMillis);
+        return rounds;
+    }
+
+    /**
+     * Returns the BCrypt cost used for new hashes.
+     *
+     * @return BCrypt cost.
+     */
+    public int getLogRounds() {
+        return logRounds;
+    }
+
+    /**
+     * Checks whether a hash was produced with a lower cost than the current one.
+     *
+     * @param hashedPassword BCrypt hash in {@code $2a$NN$...} format.
+     * @return True if the hash should be upgraded.
+     */
+    public boolean needsRehash(String hashedPassword) {
+        if (hashedPassword == null || hashedPassword.length() < 7 || hashedPassword.charAt(6) != '$') {
+            return false;
+        }
+        char tens = hashedPassword.charAt(4);
+        char units = hashedPassword.charAt(5);
+        if (!Character.isDigit(tens) || !Character.isDigit(units)) {
+            return false;
+        }
+        return (tens - '0') * 10 + (units - '0') < logRounds;
+    }
 
     /**
      * Hashes a plain text password using BCrypt.
@@ -33,7 +159,12 @@ public class PasswordService {
      * @return Hashed password.
      */
     public String hashPassword(String password) {
-        return BCrypt.hashpw(password, BCrypt.gensalt(LOG_ROUND, random));
+        long start = System.nanoTime();
+        try {
+            return BCrypt.hashpw(password, BCrypt.gensalt(logRounds, random));
+        } finally {
+            authMetrics.getBcryptHashTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
     }
 
     /**
@@ -44,30 +175,107 @@ public class PasswordService {
      * @return True if matches, else false.
      */
     public boolean verifyPassword(String password, String hashedPassword) {
-        return BCrypt.checkpw(password, hashedPassword);
+        long start = System.nanoTime();
+        try {
+            return BCrypt.checkpw(password, hashedPassword);
+        } finally {
+            authMetrics.getBcryptVerifyTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
     }
 
     /**
-     * Generates a transformed vector from the password hash.
+     * Hashes a plain text password on the password hashing executor.
      *
-     * @param passwordHash Hashed password.
-     * @return Transformed vector as a base64 string.
-     * @throws Exception If encryption fails.
+     * @param password Plain text password.
+     * @return Future completing with the hashed password, or failed with {@code BUSY} at once if
+     * the hashing queue is full.
      */
-    public String generatePasswordVector(String passwordHash) throws Exception {
-        SecureMatrix secureMatrix = mathUtil.generateSecureMatrix(passwordHash);
-        SecureMatrix transformedMatrix = mathUtil.nonLinearTransform(secureMatrix);
-        SecureMatrix derivativeMatrix = mathUtil.calculateDerivative(transformedMatrix);
-        String encryptedBinary = mathUtil.matrixToBinaryArray(derivativeMatrix);
+    public CompletableFuture<Result<String>> hashPasswordAsync(String password) {
+        return submit(() -> Result.success(hashPassword(password)));
+    }
 
-        byte[] input = encryptedBinary.getBytes("UTF-8");
-        byte[] output = new byte[input.length];
-        Deflater deflater = new Deflater();
-        deflater.setInput(input);
-        deflater.finish();
-        int compressedDataLength = deflater.deflate(output);
+    /**
+     * Hashes a plain text password and generates its password vector in a single task on the
+     * password hashing executor, so that neither runs on request threads.
+     *
+     * @param password Plain text password.
+     * @return Future completing with the hash and vector, failed with {@code PASSWORD_VECTOR_FAILED}
+     * if encryption fails, or failed with {@code BUSY} at once if the hashing queue is full.
+     */
+    public CompletableFuture<Result<HashedPassword>> hashPasswordWithVectorAsync(String password) {
+        return submit(() -> {
+            String hashedPassword = hashPassword(password);
+            Result<String> passwordVector = generatePasswordVector(hashedPassword);
+            return passwordVector.isSuccess()
+                    ? Result.success(new HashedPassword(hashedPassword, passwordVector.getValue()))
+                    : Result.failure(passwordVector.getFailure());
+        });
+    }
 
-        return Base64.getEncoder().encodeToString(output);
+    /**
+     * Verifies a plain text password against a hashed password on the password hashing executor.
+     *
+     * @param password       Plain text password.
+     * @param hashedPassword Hashed password.
+     * @return Future completing with true if the password matches, or failed with {@code BUSY}
+     * at once if the hashing queue is full.
+     */
+    public CompletableFuture<Result<Boolean>> verifyPasswordAsync(String password, String hashedPassword) {
+        return submit(() -> Result.success(verifyPassword(password, hashedPassword)));
+    }
+
+    /**
+     * Verifies a password against a dummy hash on the password hashing executor, so that a login
+     * for an unknown user costs as much as one with a wrong password.
+     *
+     * @param password Plain text password.
+     * @return Future completing with false, or failed with {@code BUSY} at once if the hashing
+     * queue is full.
+     */
+    public CompletableFuture<Result<Boolean>> verifyDummyPasswordAsync(String password) {
+        return verifyPasswordAsync(password, dummyHash)
+                .thenApply(result -> result.isSuccess() ? Result.success(false) : result);
+    }
+
+    /**
+     * Runs a task on the password hashing executor. Tasks are handed to the underlying pool
+     * directly: its rejection is a shared {@link com.msinyu.jwtservice.exception.PoolSaturatedException},
+     * which the Spring wrapper would otherwise turn into a new exception with a message naming
+     * the executor and the task. Stages chained to the returned future run on the continuation
+     * executor, which is the hashing thread itself unless request handling runs on virtual
+     * threads; then the database work that follows hashing leaves the bounded pool.
+     *
+     * @param task Task to run.
+     * @param <T>  The type of the task result.
+     * @return Future completing with the task result, or failed with {@code BUSY} if the pool
+     * rejected the task.
+     */
+    private <T> CompletableFuture<Result<T>> submit(Supplier<Result<T>> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, passwordHashingExecutor.getThreadPoolExecutor())
+                    .thenApplyAsync(Function.identity(), passwordContinuationExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(Result.failure(Result.Failure.BUSY));
+        }
+    }
+
+    /**
+     * Generates a transformed vector from the password hash.
+     *
+     * @param passwordHash Hashed password.
+     * @return Transformed vector in the current stored format, or {@code PASSWORD_VECTOR_FAILED}
+     * if encryption fails.
+     */
+    public Result<String> generatePasswordVector(String passwordHash) {
+        long start = System.nanoTime();
+        try {
+            return Result.success(passwordVectorCodec.encode(passwordHash));
+        } catch (Exception e) {
+            log.error("Failed to generate password vector", e);
+            return Result.failure(Result.Failure.PASSWORD_VECTOR_FAILED);
+        } finally {
+            authMetrics.getVectorGenerationTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
     }
 
     /**
@@ -76,10 +284,9 @@ public class PasswordService {
      * @param user            The user whose password is being updated.
      * @param hashedPassword  The new hashed password.
      * @param passwordVector  The generated password vector.
-     * @throws Exception If encryption fails.
      */
     @Transactional
-    public void addPasswordHistory(User user, String hashedPassword, String passwordVector) throws Exception {
+    public void addPasswordHistory(User user, String hashedPassword, String passwordVector) {
         PasswordHistory history = new PasswordHistory();
         history.setPasswordHash(hashedPassword);
         history.setPasswordVector(passwordVector);
@@ -91,4 +298,62 @@ public class PasswordService {
         }
     }
 
+    /**
+     * Computes the key digest of a user from the password histories it holds.
+     *
+     * @param user User with its password histories.
+     * @return Versioned key digest.
+     */
+    public String keyDigest(User user) {
+        List<PasswordHistory> histories = new ArrayList<>(user.getPasswordHistories());
+        histories.sort(Comparator.comparing(PasswordHistory::getCreatedAt).reversed());
+        List<String> vectors = new ArrayList<>(histories.size());
+        for (PasswordHistory history : histories) {
+            vectors.add(history.getPasswordVector());
+        }
+        return keyDigest(vectors);
+    }
+
+    /**
+     * Computes a key digest: the SHA-256 of the concatenated password vectors, newest first,
+     * behind a version prefix. Signing keys are derived from the digest, so their derivation
+     * no longer depends on the number or size of the vectors.
+     *
+     * @param passwordVectors Stored password vectors, newest first.
+     * @return Versioned key digest.
+     */
+    public String keyDigest(List<String> passwordVectors) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 algorithm not found.", e);
+        }
+        for (String passwordVector : passwordVectors) {
+            digest.update(passwordVector.getBytes(StandardCharsets.UTF_8));
+        }
+        return KEY_DIGEST_PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest());
+    }
+
+    /**
+     * Checks whether a stored key digest was computed with the current version.
+     *
+     * @param keyDigest Stored key digest, may be null.
+     * @return True if the digest does not need to be recomputed.
+     */
+    public boolean isCurrentKeyDigest(String keyDigest) {
+        return keyDigest != null && keyDigest.startsWith(KEY_DIGEST_PREFIX);
+    }
+
+    /**
+     * BCrypt hash of a new password and the password vector generated from it.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class HashedPassword {
+
+        private final String passwordHash;
+
+        private final String passwordVector;
+    }
 }
@@ -0,0 +1,106 @@
+package com.msinyu.jwtservice.service;
+
+import com.msinyu.jwtservice.model.PasswordHistory;
+import com.msinyu.jwtservice.repository.PasswordHistoryRepository;
+import com.msinyu.jwtservice.security.SigningKeyCache;
+import com.msinyu.jwtservice.util.PasswordVectorCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Background job re-encoding stored password vectors into the current format, which also
+ * re-encrypts vectors written with a key other than the active encryption key.
+ * <p>
+ * Histories are walked in id order, one batch per run and one transaction per batch. Once a
+ * full pass completes, the next one starts after the configured pass interval.
+ * Signing keys are derived from the key digest computed when the vectors were written, so
+ * migration leaves them untouched. Only users without a key digest, whose keys are still derived
+ * from the vectors themselves, get a new signing key and lose their outstanding tokens.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "password.vector.migration.enabled", havingValue = "true")
+public class PasswordVectorMigrator {
+
+    @Autowired
+    private PasswordHistoryRepository passwordHistoryRepository;
+
+    @Autowired
+    private PasswordVectorCodec passwordVectorCodec;
+
+    @Autowired
+    private SigningKeyCache signingKeyCache;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${password.vector.migration.batch-size}")
+    private int batchSize;
+
+    @Value("${password.vector.migration.pass-interval}")
+    private long passInterval;
+
+    private long cursor;
+    private long nextPassAt;
+    private int migrated;
+    private int failed;
+
+    /**
+     * Migrates the next batch of password histories.
+     */
+    @Scheduled(fixedDelayString = "${password.vector.migration.interval}")
+    public void migrateNextBatch() {
+        if (System.currentTimeMillis() < nextPassAt) {
+            return;
+        }
+        Set<Long> affectedUsers = new HashSet<>();
+        Boolean hasMore = transactionTemplate.execute(status -> migrateBatch(affectedUsers));
+        affectedUsers.forEach(signingKeyCache::invalidate);
+
+        if (!Boolean.TRUE.equals(hasMore)) {
+            if (migrated > 0 || failed > 0) {
+                log.info("Password vector migration pass complete: {} migrated, {} failed", migrated, failed);
+            }
+            cursor = 0;
+            migrated = 0;
+            failed = 0;
+            nextPassAt = System.currentTimeMillis() + passInterval;
+        }
+    }
+
+    /**
+     * Migrates one batch inside the current transaction; changes are flushed by dirty checking.
+     *
+     * @param affectedUsers Collects the ids of users whose vectors changed.
+     * @return True if the batch was not empty.
+     */
+    private boolean migrateBatch(Set<Long> affectedUsers) {
+        List<PasswordHistory> histories = passwordHistoryRepository
+                .findByIdGreaterThanOrderByIdAsc(cursor, PageRequest.of(0, batchSize));
+        for (PasswordHistory history : histories) {
+            cursor = history.getId();
+            if (passwordVectorCodec.isCurrent(history.getPasswordVector())) {
+                continue;
+            }
+            try {
+                history.setPasswordVector(passwordVectorCodec.migrate(history.getPasswordVector()));
+                affectedUsers.add(history.getUser().getId());
+                migrated++;
+            } catch (Exception e) {
+                log.debug("Cannot migrate password vector of history {}: {}", history.getId(), e.toString());
+                failed++;
+            }
+        }
+        return !histories.isEmpty();
+    }
+}
@@ -0,0 +1,193 @@
+package com.msinyu.jwtservice.service;
+
+import com.msinyu.jwtservice.metrics.AuthMetrics;
+import com.msinyu.jwtservice.metrics.AuthMetrics.RefreshOutcome;
+import com.msinyu.jwtservice.model.RefreshToken;
+import com.msinyu.jwtservice.model.UserCredentials;
+import com.msinyu.jwtservice.repository.RefreshTokenRepository;
+import com.msinyu.jwtservice.repository.UserRepository;
+import com.msinyu.jwtservice.security.SigningKeyCache;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * Service for issuing and exchanging single-use refresh tokens.
+ * <p>
+ * A refresh token is exchanged for a new access token and a new refresh token of the same
+ * family, which costs an indexed lookup and an update instead of a BCrypt verification. Tokens
+ * are random, so a plain SHA-256 hash is enough to store them. Presenting a token that has
+ * already been exchanged means it was copied: the whole family is revoked, and the client has
+ * to log in again.
+ * <p>
+ * A family expires a fixed time after its login, however often it is exchanged. It also records
+ * the key version of the user's random hash at login, and is only exchanged while that still
+ * matches: a password change ends every family, including one issued by a login that raced it.
+ */
+@Slf4j
+@Service
+public class RefreshTokenService {
+
+    private static final SecureRandom secureRandom = new SecureRandom();
+    private static final int TOKEN_LENGTH = 32;
+    private static final int FAMILY_ID_LENGTH = 16;
+
+    @Autowired
+    private RefreshTokenRepository refreshTokenRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private AuthMetrics authMetrics;
+
+    @Value("${jwt.refresh-token.expiration}")
+    private long refreshTokenExpiration;
+
+    @Value("${jwt.refresh-token.max-family-age}")
+    private long maxFamilyAge;
+
+    /**
+     * Issues the first refresh token of a new family, on login.
+     *
+     * @param credentials Credentials of the user, as verified by the login.
+     * @return Refresh token.
+     */
+    public String issue(UserCredentials credentials) {
+        long now = System.currentTimeMillis();
+        return issue(credentials.getId(), randomString(FAMILY_ID_LENGTH),
+                SigningKeyCache.keyVersion(credentials.getRandomHash()), now + maxFamilyAge, now);
+    }
+
+    /**
+     * Exchanges a refresh token for a new one of the same family. Expired tokens and tokens
+     * issued before a password change are rejected, and used tokens revoke their family.
+     *
+     * @param refreshToken Refresh token presented by the client.
+     * @return Optional containing the user's credentials and the new refresh token, empty if the
+     * token is unknown, expired, revoked or has already been used.
+     */
+    public Optional<Rotation> rotate(String refreshToken) {
+        Optional<RefreshToken> stored = refreshTokenRepository.findByTokenHash(hash(refreshToken));
+        long now = System.currentTimeMillis();
+        if (!stored.isPresent() || stored.get().getExpiresAt() < now || stored.get().getFamilyExpiresAt() < now) {
+            authMetrics.recordRefresh(RefreshOutcome.INVALID);
+            return Optional.empty();
+        }
+        RefreshToken current = stored.get();
+        if (current.getUsedAt() != null || refreshTokenRepository.markUsed(current.getId(), now) == 0) {
+            refreshTokenRepository.deleteByFamilyId(current.getFamilyId());
+            authMetrics.recordRefresh(RefreshOutcome.REUSED);
+            log.warn("Refresh token reuse detected for user {}, revoked its token family", current.getUserId());
+            return Optional.empty();
+        }
+        Optional<UserCredentials> user = userRepository.findCredentialsById(current.getUserId())
+                .filter(u -> current.getKeyVersion().equals(SigningKeyCache.keyVersion(u.getRandomHash())));
+        if (!user.isPresent()) {
+            refreshTokenRepository.deleteByFamilyId(current.getFamilyId());
+            authMetrics.recordRefresh(RefreshOutcome.INVALID);
+            return Optional.empty();
+        }
+        authMetrics.recordRefresh(RefreshOutcome.SUCCESS);
+        String next = issue(current.getUserId(), current.getFamilyId(), current.getKeyVersion(),
+                current.getFamilyExpiresAt(), now);
+        return Optional.of(new Rotation(user.get(), next));
+    }
+
+    /**
+     * Revokes every refresh token of a user. Runs in a transaction of its own, so it also
+     * commits when called after the commit of a password change.
+     *
+     * @param userId The id of the user.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void revokeAll(Long userId) {
+        refreshTokenRepository.deleteByUserId(userId);
+    }
+
+    /**
+     * Deletes expired refresh tokens.
+     */
+    @Scheduled(fixedDelayString = "${jwt.refresh-token.purge-interval}")
+    public void purgeExpired() {
+        int deleted = refreshTokenRepository.deleteExpired(System.currentTimeMillis());
+        if (deleted > 0) {
+            log.info("Deleted {} expired refresh tokens", deleted);
+        }
+    }
+
+    /**
+     * Stores a new refresh token, expiring no later than its family.
+     *
+     * @param userId          The id of the user.
+     * @param familyId        The id of the token family.
+     * @param keyVersion      Key version of the user's random hash at login.
+     * @param familyExpiresAt Expiration of the family in milliseconds since the epoch.
+     * @param now             Current time in milliseconds since the epoch.
+     * @return Refresh token.
+     */
+    private String issue(Long userId, String familyId, String keyVersion, long familyExpiresAt, long now) {
+        String token = randomString(TOKEN_LENGTH);
+        RefreshToken refreshToken = new RefreshToken();
+        refreshToken.setTokenHash(hash(token));
+        refreshToken.setUserId(userId);
+        refreshToken.setFamilyId(familyId);
+        refreshToken.setKeyVersion(keyVersion);
+        refreshToken.setExpiresAt(Math.min(now + refreshTokenExpiration, familyExpiresAt));
+        refreshToken.setFamilyExpiresAt(familyExpiresAt);
+        refreshTokenRepository.save(refreshToken);
+        return token;
+    }
+
+    /**
+     * Generates a random Base64url string.
+     *
+     * @param bytes Number of random bytes.
+     * @return Base64url encoded random bytes.
+     */
+    private static String randomString(int bytes) {
+        byte[] randomBytes = new byte[bytes];
+        secureRandom.nextBytes(randomBytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(randomBytes);
+    }
+
+    /**
+     * Hashes a refresh token for storage and lookup.
+     *
+     * @param token Refresh token.
+     * @return Base64url encoded SHA-256 hash.
+     */
+    private static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 algorithm not found.", e);
+        }
+    }
+
+    /**
+     * Result of a successful refresh token exchange.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Rotation {
+
+        private final UserCredentials user;
+
+        private final String refreshToken;
+    }
+}
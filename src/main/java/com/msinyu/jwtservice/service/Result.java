@@ -0,0 +1,84 @@
+package com.msinyu.jwtservice.service;
+
+import lombok.Getter;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Outcome of a service operation whose failures are expected, such as a saturated hashing pool
+ * or a taken username: a value, or the reason there is none. Failures are returned instead of
+ * thrown, so answering them costs no exception, and each kind of failure is a shared instance.
+ *
+ * @param <T> The type of the value.
+ */
+@Getter
+public final class Result<T> {
+
+    /**
+     * Reasons an operation produced no value.
+     */
+    public enum Failure {
+        /**
+         * The password hashing pool is saturated.
+         */
+        BUSY,
+        /**
+         * The username is already taken.
+         */
+        USERNAME_TAKEN,
+        /**
+         * The password vector could not be generated.
+         */
+        PASSWORD_VECTOR_FAILED
+    }
+
+    private static final Map<Failure, Result<?>> FAILURES = new EnumMap<>(Failure.class);
+
+    static {
+        for (Failure failure : Failure.values()) {
+            FAILURES.put(failure, new Result<>(null, failure));
+        }
+    }
+
+    private final T value;
+
+    private final Failure failure;
+
+    private Result(T value, Failure failure) {
+        this.value = value;
+        this.failure = failure;
+    }
+
+    /**
+     * Creates a successful result.
+     *
+     * @param value Value of the result.
+     * @param <T>   The type of the value.
+     * @return Successful result.
+     */
+    public static <T> Result<T> success(T value) {
+        return new Result<>(value, null);
+    }
+
+    /**
+     * Returns the shared result of a failure.
+     *
+     * @param failure Reason of the failure.
+     * @param <T>     The type of the value.
+     * @return Failed result.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Result<T> failure(Failure failure) {
+        return (Result<T>) FAILURES.get(failure);
+    }
+
+    /**
+     * Checks whether the operation produced a value.
+     *
+     * @return True if successful.
+     */
+    public boolean isSuccess() {
+        return failure == null;
+    }
+}
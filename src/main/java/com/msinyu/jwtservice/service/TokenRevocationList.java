@@ -0,0 +1,125 @@
+package com.msinyu.jwtservice.service;
+
+import com.msinyu.jwtservice.model.RevokedToken;
+import com.msinyu.jwtservice.repository.RevokedTokenRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ids of tokens revoked before their expiration, persisted in the database and indexed in memory.
+ * <p>
+ * The index groups token ids into buckets by expiration time. A token's own expiration names its
+ * bucket, so a lookup is a single hash probe, and a bucket is dropped as a whole once every token
+ * in it has expired. Memory is therefore bounded by the number of revoked tokens that are still
+ * live, and expired rows are deleted from the database on the same schedule.
+ * <p>
+ * Every sync also loads the revocations made since the previous one, including those made by
+ * other replicas, so a token revoked elsewhere is rejected here within one sync interval.
+ */
+@Slf4j
+@Component
+public class TokenRevocationList {
+
+    private final RevokedTokenRepository revokedTokenRepository;
+    private final long bucketWidth;
+    private final long syncInterval;
+    private final Map<Long, Set<String>> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private long lastSync = -1;
+
+    public TokenRevocationList(RevokedTokenRepository revokedTokenRepository,
+                               MeterRegistry meterRegistry,
+                               @Value("${jwt.revocation.bucket-width}") long bucketWidth,
+                               @Value("${jwt.revocation.sync-interval}") long syncInterval) {
+        this.revokedTokenRepository = revokedTokenRepository;
+        this.bucketWidth = bucketWidth;
+        this.syncInterval = syncInterval;
+        Gauge.builder("jwt.revocation.entries", size, AtomicInteger::get)
+                .description("Revoked tokens held in memory until they expire")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Revokes a token until its expiration.
+     *
+     * @param tokenId   Token id.
+     * @param expiresAt Expiration of the token, in milliseconds since the epoch.
+     */
+    public void revoke(String tokenId, long expiresAt) {
+        RevokedToken revokedToken = new RevokedToken();
+        revokedToken.setTokenId(tokenId);
+        revokedToken.setExpiresAt(expiresAt);
+        revokedToken.setRevokedAt(System.currentTimeMillis());
+        revokedTokenRepository.save(revokedToken);
+        index(tokenId, expiresAt);
+    }
+
+    /**
+     * Checks whether a token has been revoked.
+     *
+     * @param tokenId   Token id, or null for tokens without one.
+     * @param expiresAt Expiration of the token, in milliseconds since the epoch.
+     * @return True if the token has been revoked.
+     */
+    public boolean isRevoked(String tokenId, long expiresAt) {
+        if (tokenId == null) {
+            return false;
+        }
+        Set<String> bucket = buckets.get(Math.floorDiv(expiresAt, bucketWidth));
+        return bucket != null && bucket.contains(tokenId);
+    }
+
+    /**
+     * Adds a token id to the bucket of its expiration.
+     *
+     * @param tokenId   Token id.
+     * @param expiresAt Expiration of the token, in milliseconds since the epoch.
+     */
+    private void index(String tokenId, long expiresAt) {
+        if (buckets.computeIfAbsent(Math.floorDiv(expiresAt, bucketWidth), k -> ConcurrentHashMap.newKeySet()).add(tokenId)) {
+            size.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops the buckets of expired tokens, loads the revocations made since the last sync and
+     * deletes expired revocations from the database. The first sync loads every live revocation.
+     */
+    @Scheduled(fixedDelayString = "${jwt.revocation.sync-interval}")
+    public void sync() {
+        long now = System.currentTimeMillis();
+        long current = Math.floorDiv(now, bucketWidth);
+        buckets.entrySet().removeIf(bucket -> {
+            if (bucket.getKey() < current) {
+                size.addAndGet(-bucket.getValue().size());
+                return true;
+            }
+            return false;
+        });
+
+        // Overlap the previous sync by one interval, for revocations committed while it ran
+        Iterable<RevokedToken> revoked = lastSync < 0
+                ? revokedTokenRepository.findByExpiresAtGreaterThan(now)
+                : revokedTokenRepository.findByRevokedAtGreaterThanEqual(lastSync - syncInterval);
+        for (RevokedToken revokedToken : revoked) {
+            if (revokedToken.getExpiresAt() >= now) {
+                index(revokedToken.getTokenId(), revokedToken.getExpiresAt());
+            }
+        }
+        if (lastSync < 0) {
+            log.info("Loaded {} revoked tokens", size.get());
+        }
+        lastSync = now;
+        revokedTokenRepository.deleteExpired(now - bucketWidth);
+    }
+}
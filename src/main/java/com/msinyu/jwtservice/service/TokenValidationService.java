@@ -0,0 +1,212 @@
+package com.msinyu.jwtservice.service;
+
+import com.msinyu.jwtservice.model.UserCredentials;
+import com.msinyu.jwtservice.security.JwtUtil;
+import com.msinyu.jwtservice.security.SigningKeyCache;
+import com.msinyu.jwtservice.security.UnverifiedToken;
+import io.jsonwebtoken.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Service for stateless validation of issued tokens.
+ * <p>
+ * Tokens are read once without verification, to reject malformed and expired tokens before any
+ * key lookup, and then verified once with the key named by their header. HS256 tokens are
+ * verified by the {@link com.msinyu.jwtservice.security.Hs256Verifier} rather than jjwt. Tokens
+ * revoked individually are rejected from the in-memory {@link TokenRevocationList}.
+ * The signing key of HS256 tokens is resolved from the token's subject and key id, which carries
+ * the user id and key version. Keys of recently active users are served from the
+ * {@link SigningKeyCache} while their version matches; the database is only consulted on a cache
+ * miss. ES256 tokens are verified with the published service key and then checked against the
+ * user's current random hash, so password changes still revoke them here.
+ */
+@Service
+public class TokenValidationService {
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Autowired
+    private SigningKeyCache signingKeyCache;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private TokenRevocationList tokenRevocationList;
+
+    @Autowired
+    @Qualifier("tokenVerificationExecutor")
+    private AsyncTaskExecutor tokenVerificationExecutor;
+
+    /**
+     * Validates a token and returns its claims.
+     *
+     * @param token JWT token string.
+     * @return Optional containing the verified claims if the token is valid.
+     */
+    public Optional<Claims> validate(String token) {
+        return validate(token, this::resolveKey, userService::findCredentialsById);
+    }
+
+    /**
+     * Validates a batch of tokens in parallel on the token verification executor.
+     * Keys are resolved once per subject for the whole batch, so tokens of the same user
+     * share a single cache lookup or derivation. Likewise ES256 tokens of the same user share a
+     * single revocation lookup.
+     *
+     * @param tokens JWT token strings.
+     * @return One future per token, in input order, completing with the verified claims if valid.
+     */
+    public List<CompletableFuture<Optional<Claims>>> validateBatch(List<String> tokens) {
+        ConcurrentMap<String, Optional<Key>> batchKeys = new ConcurrentHashMap<>();
+        Function<UnverifiedToken, Key> batchKeyLookup = unverified -> {
+            if (jwtUtil.isServiceSigned(unverified)) {
+                return jwtUtil.resolveServiceKey(unverified.getKeyId());
+            }
+            return batchKeys.computeIfAbsent(unverified.getKeyId() + ':' + unverified.getSubject(), k -> {
+                try {
+                    return Optional.of(resolveKey(unverified));
+                } catch (JwtException e) {
+                    return Optional.empty();
+                }
+            }).orElseThrow(() -> new SignatureException("Unknown token subject."));
+        };
+
+        ConcurrentMap<Long, Optional<UserCredentials>> batchUsers = new ConcurrentHashMap<>();
+        Function<Long, Optional<UserCredentials>> batchLookup =
+                userId -> batchUsers.computeIfAbsent(userId, userService::findCredentialsById);
+
+        List<CompletableFuture<Optional<Claims>>> results = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            results.add(CompletableFuture.supplyAsync(() -> validate(token, batchKeyLookup, batchLookup), tokenVerificationExecutor));
+        }
+        return results;
+    }
+
+    /**
+     * Validates a token. The header and payload are first read without verification, to reject
+     * malformed and expired tokens before any key lookup and to pick the key. The token is then
+     * verified once, with that key.
+     *
+     * @param token      JWT token string.
+     * @param keyLookup  Resolves the user's or the service's verification key.
+     * @param userLookup Loads user credentials by id, to check ES256 tokens for revocation.
+     * @return Optional containing the verified claims if the token is valid.
+     */
+    private Optional<Claims> validate(String token, Function<UnverifiedToken, Key> keyLookup,
+                                      Function<Long, Optional<UserCredentials>> userLookup) {
+        UnverifiedToken unverified = UnverifiedToken.parse(token);
+        if (unverified == null || unverified.isExpired(System.currentTimeMillis()) || isRevoked(unverified)) {
+            return Optional.empty();
+        }
+        try {
+            Claims claims = jwtUtil.verify(token, unverified, keyLookup.apply(unverified));
+            if (claims == null || !Objects.equals(claims.getSubject(), unverified.getSubject())) {
+                return Optional.empty();
+            }
+            if (jwtUtil.isServiceSigned(unverified) && !isCurrent(claims, userLookup)) {
+                return Optional.empty();
+            }
+            return Optional.of(claims);
+        } catch (JwtException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Checks that a verified ES256 token belongs to an existing user and was issued for the
+     * user's current random hash.
+     *
+     * @param claims     Verified claims.
+     * @param userLookup Loads user credentials by id.
+     * @return True if the token has not been revoked.
+     */
+    private boolean isCurrent(Claims claims, Function<Long, Optional<UserCredentials>> userLookup) {
+        Long userId = claims.get(JwtUtil.USER_ID_CLAIM, Long.class);
+        if (userId == null || claims.getSubject() == null) {
+            return false;
+        }
+        return userLookup.apply(userId)
+                .filter(user -> claims.getSubject().equals(user.getUsername()))
+                .filter(user -> jwtUtil.isCurrent(claims, user.getRandomHash()))
+                .isPresent();
+    }
+
+    /**
+     * Checks whether a token has been revoked, before verifying it: a revoked id is rejected
+     * whether or not the token carrying it is genuine.
+     *
+     * @param unverified Unverified token fields.
+     * @return True if the token id has been revoked.
+     */
+    private boolean isRevoked(UnverifiedToken unverified) {
+        return unverified.getExpiration() != null
+                && tokenRevocationList.isRevoked(unverified.getTokenId(), unverified.getExpiration() * 1000);
+    }
+
+    /**
+     * Resolves the verification key named by a token. HS256 keys are resolved from the key id and
+     * subject, loading the user's credentials only on a cache miss and its password vectors only
+     * when the key has to be derived.
+     *
+     * @param unverified Unverified token fields.
+     * @return Verification key.
+     */
+    private Key resolveKey(UnverifiedToken unverified) {
+        if (jwtUtil.isServiceSigned(unverified)) {
+            return jwtUtil.resolveServiceKey(unverified.getKeyId());
+        }
+        String subject = unverified.getSubject();
+        if (subject == null) {
+            throw new SignatureException("Token has no subject.");
+        }
+        String keyId = unverified.getKeyId();
+        Long userId = parseUserId(keyId);
+        int separator = userId != null ? keyId.indexOf(JwtUtil.KEY_VERSION_SEPARATOR) : -1;
+        if (separator >= 0) {
+            Key cached = signingKeyCache.getIfPresent(userId, subject, keyId.substring(separator + 1));
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Optional<UserCredentials> user = userId != null
+                ? userService.findCredentialsById(userId)
+                : userService.findCredentialsByUsername(subject);
+        return user
+                .filter(u -> subject.equals(u.getUsername()))
+                .map(jwtUtil::resolveUserKey)
+                .orElseThrow(() -> new SignatureException("Unknown token subject."));
+    }
+
+    /**
+     * Parses the user id carried in the key id header, ahead of the key version if present.
+     *
+     * @param keyId Key id header value.
+     * @return User id, or null if absent or malformed.
+     */
+    private Long parseUserId(String keyId) {
+        if (keyId == null) {
+            return null;
+        }
+        int separator = keyId.indexOf(JwtUtil.KEY_VERSION_SEPARATOR);
+        try {
+            return Long.valueOf(separator < 0 ? keyId : keyId.substring(0, separator));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
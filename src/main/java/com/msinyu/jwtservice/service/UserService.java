@@ -1,27 +1,54 @@
 package com.msinyu.jwtservice.service;
 
+import com.msinyu.jwtservice.metrics.AuthMetrics;
 import com.msinyu.jwtservice.model.User;
+import com.msinyu.jwtservice.model.UserCredentials;
+import com.msinyu.jwtservice.repository.PasswordHistoryRepository;
 import com.msinyu.jwtservice.repository.UserRepository;
+import com.msinyu.jwtservice.security.SigningKeyCache;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.exception.ConstraintViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service for managing users.
  */
+@Slf4j
 @Service
 public class UserService {
 
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private PasswordHistoryRepository passwordHistoryRepository;
+
     @Autowired
     private PasswordService passwordService;
 
+    @Autowired
+    private SigningKeyCache signingKeyCache;
+
+    @Autowired
+    private AuthMetrics authMetrics;
+
+    @Autowired
+    private UsernameFilter usernameFilter;
+
+    @Autowired
+    private RefreshTokenService refreshTokenService;
+
     private static final SecureRandom secureRandom = new SecureRandom();
     private static final int RANDOM_HASH_LENGTH = 48; // 48 bytes -> 64 characters in Base64
 
@@ -37,41 +64,209 @@ public class UserService {
     }
 
     /**
-     * Registers a new user.
+     * Registers a new user. The user and its password history are inserted by a single save,
+     * which runs its own transaction; a registration that lost a race for the username fails on
+     * the unique constraint of the username column. Other integrity violations are rethrown. The
+     * username is added to the username filter once the save has committed.
      *
      * @param user User to register.
-     * @return Registered user.
+     * @return Registered user, or {@code USERNAME_TAKEN}.
      */
-    @Transactional
-    public User registerUser(User user) {
+    public Result<User> registerUser(User user) {
         user.setRandomHash(generateRandomHash());
-        return userRepository.save(user);
+        user.setKeyDigest(passwordService.keyDigest(user));
+        User saved;
+        try {
+            saved = userRepository.save(user);
+        } catch (DataIntegrityViolationException e) {
+            if (isUsernameViolation(e, user.getUsername())) {
+                return Result.failure(Result.Failure.USERNAME_TAKEN);
+            }
+            throw e;
+        }
+        usernameFilter.add(saved.getUsername());
+        return Result.success(saved);
+    }
+
+    /**
+     * Checks whether an integrity violation was raised by the unique username column. The
+     * constraint is not matched by name, which Hibernate generates and databases report
+     * differently; a constraint violation counts as a taken username if the username now exists.
+     *
+     * @param e        Integrity violation.
+     * @param username Username being registered.
+     * @return True if the username is already taken.
+     */
+    private boolean isUsernameViolation(DataIntegrityViolationException e, String username) {
+        return e.getCause() instanceof ConstraintViolationException && userRepository.existsByUsername(username);
+    }
+
+    /**
+     * Checks whether a username is taken. Cheaper than {@link #findByUsername}, which also loads
+     * password histories. Usernames missing from the username filter skip the database, which
+     * is why no transaction is opened here; the repository runs its own.
+     *
+     * @param username Username to check.
+     * @return True if the username is taken.
+     */
+    public boolean usernameExists(String username) {
+        if (!usernameFilter.mightExist(username)) {
+            return false;
+        }
+        long start = System.nanoTime();
+        try {
+            return userRepository.existsByUsername(username);
+        } finally {
+            authMetrics.getUserLookupTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
     }
 
     /**
-     * Finds a user by username, eagerly loading password histories.
+     * Finds a user by username, eagerly loading password histories. Usernames missing from the
+     * username filter skip the database, which is why no transaction is opened here; the
+     * repository runs its own.
      *
      * @param username Username to search.
      * @return Optional containing the user if found.
      */
-    @Transactional(readOnly = true)
     public Optional<User> findByUsername(String username) {
-        return userRepository.findByUsernameWithPasswordHistories(username);
+        if (!usernameFilter.mightExist(username)) {
+            return Optional.empty();
+        }
+        long start = System.nanoTime();
+        try {
+            return userRepository.findByUsernameWithPasswordHistories(username);
+        } finally {
+            authMetrics.getUserLookupTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
     }
 
     /**
-     * Updates a user's password hash and password vectors, and regenerates the random hash.
+     * Finds the credentials of a user by username. Used where only the password hash and the
+     * random hash are needed, such as login, so password vectors are not loaded.
+     *
+     * @param username Username to search.
+     * @return Optional containing the credentials if found.
+     */
+    public Optional<UserCredentials> findCredentialsByUsername(String username) {
+        if (!usernameFilter.mightExist(username)) {
+            return Optional.empty();
+        }
+        long start = System.nanoTime();
+        try {
+            return userRepository.findCredentialsByUsername(username);
+        } finally {
+            authMetrics.getUserLookupTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Finds the credentials of a user by id, without loading password vectors.
+     *
+     * @param id Id to search.
+     * @return Optional containing the credentials if found.
+     */
+    public Optional<UserCredentials> findCredentialsById(Long id) {
+        long start = System.nanoTime();
+        try {
+            return userRepository.findCredentialsById(id);
+        } finally {
+            authMetrics.getUserLookupTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Loads the password vectors of a user, newest first. Only needed to compute a key digest,
+     * or to derive the signing key of a user without one.
+     *
+     * @param userId Id of the user.
+     * @return Stored password vectors.
+     */
+    public List<String> findPasswordVectors(Long userId) {
+        long start = System.nanoTime();
+        try {
+            return passwordHistoryRepository.findPasswordVectorsByUserId(userId);
+        } finally {
+            authMetrics.getUserLookupTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Makes sure a user has a key digest of the current version, computing it from the stored
+     * password vectors when missing. The random hash is rotated with it, since the digest changes
+     * the user's signing key and previously issued tokens no longer verify anyway.
+     *
+     * @param credentials Credentials of the user.
+     * @return Credentials carrying a current key digest.
+     */
+    public UserCredentials ensureKeyDigest(UserCredentials credentials) {
+        if (passwordService.isCurrentKeyDigest(credentials.getKeyDigest())) {
+            return credentials;
+        }
+        String keyDigest = passwordService.keyDigest(findPasswordVectors(credentials.getId()));
+        String randomHash = generateRandomHash();
+        if (userRepository.updateKeyDigest(credentials.getId(), credentials.getRandomHash(), randomHash, keyDigest) == 1) {
+            signingKeyCache.invalidate(credentials.getId());
+            return new UserCredentials(credentials.getId(), credentials.getUsername(), credentials.getPasswordHash(),
+                    randomHash, keyDigest);
+        }
+        return userRepository.findCredentialsById(credentials.getId()).orElse(credentials);
+    }
+
+    /**
+     * Updates a user's password hash, password vectors and key digest, and regenerates the
+     * random hash. Refresh tokens of the user are revoked along with the issued tokens.
+     * <p>
+     * The cached signing key is dropped and the refresh tokens deleted only after commit: done
+     * earlier, a concurrent validation or login could still read the old random hash and cache
+     * its key, or issue a refresh token, before the new one becomes visible.
      *
      * @param user              User to update.
      * @param newPasswordHash   New password hash.
      * @param newPasswordVector New password vector.
-     * @throws Exception If encryption fails.
      */
     @Transactional
-    public void updateUserPassword(User user, String newPasswordHash, String newPasswordVector) throws Exception {
+    public void updateUserPassword(User user, String newPasswordHash, String newPasswordVector) {
         user.setPasswordHash(newPasswordHash);
         passwordService.addPasswordHistory(user, newPasswordHash, newPasswordVector);
         user.setRandomHash(generateRandomHash());
+        user.setKeyDigest(passwordService.keyDigest(user));
         userRepository.save(user);
+        Long userId = user.getId();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                signingKeyCache.invalidate(userId);
+                refreshTokenService.revokeAll(userId);
+            }
+        });
+    }
+
+    /**
+     * Re-hashes a verified password in the background when its stored hash uses an outdated
+     * BCrypt cost. Only the login hash is replaced; password vectors and the random hash stay
+     * untouched, so issued tokens remain valid. Skipped silently when the hashing pool is busy,
+     * the next login will try again.
+     *
+     * @param user     Credentials of the user whose password was just verified.
+     * @param password The verified plain text password.
+     */
+    public void upgradePasswordHashIfNeeded(UserCredentials user, String password) {
+        String oldHash = user.getPasswordHash();
+        if (!passwordService.needsRehash(oldHash)) {
+            return;
+        }
+        passwordService.hashPasswordAsync(password)
+                .thenAccept(newHash -> {
+                    if (newHash.isSuccess()) {
+                        userRepository.updatePasswordHash(user.getId(), oldHash, newHash.getValue());
+                    } else {
+                        log.debug("Skipping password hash upgrade of user {}, hashing pool is busy", user.getId());
+                    }
+                })
+                .exceptionally(e -> {
+                    log.warn("Failed to upgrade password hash of user {}", user.getId(), e);
+                    return null;
+                });
     }
 }
@@ -0,0 +1,134 @@
+package com.msinyu.jwtservice.service;
+
+import com.msinyu.jwtservice.repository.UserRepository;
+import com.msinyu.jwtservice.util.BloomFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.stream.Stream;
+
+/**
+ * In-memory Bloom filter of all usernames, letting lookups of unknown usernames skip the database.
+ * <p>
+ * The filter is built by streaming the users table, on startup and then periodically so it is
+ * resized as the table grows. Registrations are added as they happen. Until the first build
+ * completes, and when disabled, every username is reported as possibly present.
+ * <p>
+ * The filter only sees registrations made through this instance: a user registered on another
+ * replica reads as unknown here, and cannot log in, until the next rebuild. It is therefore
+ * disabled by default; enable it only with a single replica or a short rebuild interval.
+ */
+@Slf4j
+@Component
+public class UsernameFilter {
+
+    private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final double falsePositiveRate;
+    private final long minCapacity;
+    private final Counter definiteMisses;
+
+    private volatile BloomFilter filter;
+    private volatile BloomFilter building;
+
+    public UsernameFilter(UserRepository userRepository,
+                          TransactionTemplate transactionTemplate,
+                          MeterRegistry meterRegistry,
+                          @Value("${username.filter.enabled}") boolean enabled,
+                          @Value("${username.filter.false-positive-rate}") double falsePositiveRate,
+                          @Value("${username.filter.min-capacity}") long minCapacity) {
+        this.userRepository = userRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.falsePositiveRate = falsePositiveRate;
+        this.minCapacity = minCapacity;
+        this.definiteMisses = Counter.builder("username.filter.definite.misses")
+                .description("Username lookups answered without the database")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Checks whether a username may exist.
+     *
+     * @param username Username to check.
+     * @return False only if the username definitely does not exist.
+     */
+    public boolean mightExist(String username) {
+        BloomFilter current = filter;
+        if (current == null || current.mightContain(username)) {
+            return true;
+        }
+        definiteMisses.increment();
+        return false;
+    }
+
+    /**
+     * Adds a registered username. When called inside a transaction, the name is added again after
+     * commit, so a rebuild that streamed the table before the commit still ends up containing it.
+     *
+     * @param username Registered username.
+     */
+    public void add(String username) {
+        if (!enabled) {
+            return;
+        }
+        put(username);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    put(username);
+                }
+            });
+        }
+    }
+
+    /**
+     * Adds a username to the live filter and to the filter being built, if any.
+     *
+     * @param username Username to add.
+     */
+    private void put(String username) {
+        BloomFilter current = filter;
+        if (current != null) {
+            current.put(username);
+        }
+        BloomFilter next = building;
+        if (next != null) {
+            next.put(username);
+        }
+    }
+
+    /**
+     * Rebuilds the filter from the users table, sized for twice the current user count.
+     */
+    @Scheduled(fixedDelayString = "${username.filter.rebuild-interval}")
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long users = userRepository.count();
+        try {
+            filter = transactionTemplate.execute(status -> {
+                BloomFilter next = new BloomFilter(Math.max(minCapacity, 2 * users), falsePositiveRate);
+                building = next;
+                try (Stream<String> usernames = userRepository.streamAllUsernames()) {
+                    usernames.forEach(next::put);
+                }
+                return next;
+            });
+        } finally {
+            building = null;
+        }
+        log.info("Username filter rebuilt for {} users in {} ms", users, System.currentTimeMillis() - start);
+    }
+}
@@ -0,0 +1,137 @@
+package com.msinyu.jwtservice.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Utility class for Deflate compression with pooled compressors.
+ * <p>
+ * {@link Deflater} and {@link Inflater} hold native zlib memory that is only released by
+ * {@code end()}, so instances are reset and reused instead of being left to finalization.
+ */
+@Component
+public class CompressionUtil {
+
+    private final BlockingQueue<Deflater> deflaters;
+    private final BlockingQueue<Inflater> inflaters;
+
+    public CompressionUtil(@Value("${compression.pool-size}") int poolSize) {
+        this.deflaters = new ArrayBlockingQueue<>(poolSize);
+        this.inflaters = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    /**
+     * Compresses a range of bytes into the output buffer, giving up when the result would not fit.
+     * Passing the input length as the limit skips compression of incompressible input after at
+     * most one buffer's worth of work.
+     *
+     * @param input     Input buffer.
+     * @param offset    Offset of the data in the input buffer.
+     * @param length    Length of the data.
+     * @param out       Output buffer.
+     * @param outOffset Offset in the output buffer.
+     * @param maxLength Maximum number of compressed bytes to write.
+     * @return Number of compressed bytes written, or -1 if they exceed the maximum.
+     */
+    public int deflate(byte[] input, int offset, int length, byte[] out, int outOffset, int maxLength) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater();
+        }
+        try {
+            deflater.setInput(input, offset, length);
+            deflater.finish();
+            int written = 0;
+            while (!deflater.finished() && written < maxLength) {
+                written += deflater.deflate(out, outOffset + written, maxLength - written);
+            }
+            return deflater.finished() ? written : -1;
+        } finally {
+            release(deflater);
+        }
+    }
+
+    /**
+     * Decompresses a Deflate stream into the output buffer. Bytes after the end of the stream,
+     * such as zero padding, are ignored.
+     *
+     * @param input     Input buffer.
+     * @param offset    Offset of the stream in the input buffer.
+     * @param length    Length of the stream.
+     * @param out       Output buffer.
+     * @param outOffset Offset in the output buffer.
+     * @param maxLength Maximum number of bytes to inflate.
+     * @return Number of inflated bytes written.
+     * @throws DataFormatException If the stream is corrupt, truncated or larger than the maximum.
+     */
+    public int inflate(byte[] input, int offset, int length, byte[] out, int outOffset, int maxLength)
+            throws DataFormatException {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        try {
+            inflater.setInput(input, offset, length);
+            int written = 0;
+            while (!inflater.finished()) {
+                if (written == maxLength) {
+                    throw new DataFormatException("Inflated data exceeds " + maxLength + " bytes.");
+                }
+                int n = inflater.inflate(out, outOffset + written, maxLength - written);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated deflate stream.");
+                }
+                written += n;
+            }
+            return written;
+        } finally {
+            release(inflater);
+        }
+    }
+
+    /**
+     * Returns a compressor to the pool, or frees it when the pool is full.
+     *
+     * @param deflater Compressor to release.
+     */
+    private void release(Deflater deflater) {
+        deflater.reset();
+        if (!deflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns a decompressor to the pool, or frees it when the pool is full.
+     *
+     * @param inflater Decompressor to release.
+     */
+    private void release(Inflater inflater) {
+        inflater.reset();
+        if (!inflaters.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Frees the native memory of all pooled instances.
+     */
+    @PreDestroy
+    public void close() {
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null) {
+            deflater.end();
+        }
+        Inflater inflater;
+        while ((inflater = inflaters.poll()) != null) {
+            inflater.end();
+        }
+    }
+}
@@ -1,34 +1,228 @@
 package com.msinyu.jwtservice.util;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
 import java.security.SecureRandom;
-import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Utility class for encryption and decryption operations.
+ * <p>
+ * Keys are loaded from a PKCS12 or JCEKS keystore: the active alias encrypts, and every secret
+ * key in the keystore decrypts. Each ciphertext starts with a header naming the key that
+ * produced it, so keys can be rotated by adding a new alias, switching the active alias on all
+ * replicas and re-encrypting stored data before the old alias is removed. Ciphertexts written
+ * before the header existed are decrypted with the optional legacy alias.
+ * <p>
+ * Ciphers are kept per thread, since provider lookup is costly and a {@link Cipher} is not
+ * thread-safe. GCM IVs follow the deterministic construction of NIST SP 800-38D: a fixed field
+ * followed by an invocation counter. Both are seeded randomly when the instance is created. IVs
+ * are therefore unique for the lifetime of the instance, and as unlikely to collide across
+ * instances as random IVs.
  */
+@Slf4j
 @Component
 public class EncryptionUtil {
 
     private static final String AES = "AES";
     private static final String AES_GCM_NOPADDING = "AES/GCM/NoPadding";
     private static final int TAG_LENGTH_BIT = 128;
+    private static final int TAG_LENGTH_BYTE = TAG_LENGTH_BIT / 8;
     private static final int IV_LENGTH_BYTE = 12;
+    private static final int IV_FIXED_FIELD_LENGTH = 4;
 
-    private SecretKey secretKey;
+    /**
+     * Ciphertext header: magic, format version and key id length, followed by the key id.
+     */
+    private static final byte HEADER_MAGIC = (byte) 0xA5;
+    private static final byte HEADER_VERSION = 1;
+    private static final int HEADER_FIXED_LENGTH = 3;
+    private static final int MAX_KEY_ID_LENGTH = 255;
+    private static final String EPHEMERAL_KEY_ID = "ephemeral";
+
+    private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(AES_GCM_NOPADDING);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES/GCM cipher not available.", e);
+        }
+    });
+
+    private static final ThreadLocal<byte[]> IV_BUFFER = ThreadLocal.withInitial(() -> new byte[IV_LENGTH_BYTE]);
+    private static final ThreadLocal<byte[]> KEY_ID_BUFFER = ThreadLocal.withInitial(() -> new byte[MAX_KEY_ID_LENGTH]);
+
+    private final String activeKeyId;
+    private final SecretKey secretKey;
+    private final byte[] header;
+    private final Map<String, SecretKey> decryptionKeys;
+    private final SecretKey legacyKey;
+
+    private final byte[] ivFixedField = new byte[IV_FIXED_FIELD_LENGTH];
+    private final AtomicLong ivCounter;
 
+    /**
+     * Creates an instance with an ephemeral key, which cannot decrypt data written by any other
+     * instance.
+     *
+     * @throws Exception If no AES key can be generated.
+     */
     public EncryptionUtil() throws Exception {
-        //TODO from a key store
+        this(null, null, null);
+    }
+
+    /**
+     * Creates an instance from a keystore, or with an ephemeral key if no keystore is configured.
+     *
+     * @param keystorePath     Path of the keystore file; empty for an ephemeral key.
+     * @param keystoreType     Keystore type, PKCS12 or JCEKS.
+     * @param keystorePassword Password of the keystore and its keys.
+     * @param activeAlias      Alias of the key used for encryption.
+     * @param legacyAlias      Alias of the key that decrypts ciphertexts without a header; empty if none.
+     * @throws Exception If the keystore cannot be read or the active key is missing.
+     */
+    @Autowired
+    public EncryptionUtil(@Value("${encryption.keystore.path}") String keystorePath,
+                          @Value("${encryption.keystore.type}") String keystoreType,
+                          @Value("${encryption.keystore.password}") String keystorePassword,
+                          @Value("${encryption.key.active-alias}") String activeAlias,
+                          @Value("${encryption.key.legacy-alias}") String legacyAlias) throws Exception {
+        this(keystorePath.isEmpty() ? null : activeAlias,
+                keystorePath.isEmpty() ? null : loadKeys(keystorePath, keystoreType, keystorePassword.toCharArray()),
+                legacyAlias);
+    }
+
+    private EncryptionUtil(String activeKeyId, Map<String, SecretKey> keys, String legacyAlias) throws Exception {
+        if (keys == null) {
+            log.warn("No encryption keystore configured, using an ephemeral key. "
+                    + "Password vectors will not survive a restart or be readable by other replicas.");
+            activeKeyId = EPHEMERAL_KEY_ID;
+            keys = Collections.singletonMap(activeKeyId, generateKey());
+        }
+        this.activeKeyId = activeKeyId;
+        this.secretKey = keys.get(activeKeyId);
+        if (secretKey == null) {
+            throw new IllegalStateException("Active encryption key '" + activeKeyId + "' not found in keystore.");
+        }
+        this.decryptionKeys = keys;
+        if (legacyAlias != null && !legacyAlias.isEmpty()) {
+            this.legacyKey = keys.get(legacyAlias);
+            if (legacyKey == null) {
+                throw new IllegalStateException("Legacy encryption key '" + legacyAlias + "' not found in keystore.");
+            }
+        } else {
+            this.legacyKey = null;
+        }
+
+        byte[] keyId = activeKeyId.getBytes(StandardCharsets.UTF_8);
+        if (keyId.length == 0 || keyId.length > MAX_KEY_ID_LENGTH) {
+            throw new IllegalStateException("Encryption key id must be 1 to " + MAX_KEY_ID_LENGTH + " bytes long.");
+        }
+        this.header = new byte[HEADER_FIXED_LENGTH + keyId.length];
+        header[0] = HEADER_MAGIC;
+        header[1] = HEADER_VERSION;
+        header[2] = (byte) keyId.length;
+        System.arraycopy(keyId, 0, header, HEADER_FIXED_LENGTH, keyId.length);
+
+        SecureRandom random = new SecureRandom();
+        random.nextBytes(ivFixedField);
+        ivCounter = new AtomicLong(random.nextLong());
+        log.info("Encrypting with key '{}', {} key(s) available for decryption", activeKeyId, keys.size());
+    }
+
+    /**
+     * Loads every AES secret key of a keystore, indexed by alias.
+     *
+     * @param path     Path of the keystore file.
+     * @param type     Keystore type.
+     * @param password Password of the keystore and its keys.
+     * @return Keys by alias.
+     * @throws Exception If the keystore cannot be read.
+     */
+    private static Map<String, SecretKey> loadKeys(String path, String type, char[] password) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(type);
+        try (InputStream in = Files.newInputStream(Paths.get(path))) {
+            keyStore.load(in, password);
+        }
+        Map<String, SecretKey> keys = new HashMap<>();
+        Enumeration<String> aliases = keyStore.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            if (!keyStore.isKeyEntry(alias)) {
+                continue;
+            }
+            Key key = keyStore.getKey(alias, password);
+            if (key instanceof SecretKey && AES.equalsIgnoreCase(key.getAlgorithm())) {
+                keys.put(alias, (SecretKey) key);
+            }
+        }
+        return Collections.unmodifiableMap(keys);
+    }
+
+    /**
+     * Generates a random AES-256 key.
+     *
+     * @return Generated key.
+     * @throws Exception If AES is not available.
+     */
+    private static SecretKey generateKey() throws Exception {
         KeyGenerator keyGen = KeyGenerator.getInstance(AES);
         keyGen.init(256); // - For AES-256
-        secretKey = keyGen.generateKey();
+        return keyGen.generateKey();
+    }
+
+    /**
+     * Writes the next unique IV.
+     *
+     * @param iv     Destination buffer.
+     * @param offset Offset of the IV in the buffer.
+     */
+    private void nextIv(byte[] iv, int offset) {
+        System.arraycopy(ivFixedField, 0, iv, offset, IV_FIXED_FIELD_LENGTH);
+        long counter = ivCounter.getAndIncrement();
+        for (int i = IV_LENGTH_BYTE - 1; i >= IV_FIXED_FIELD_LENGTH; i--) {
+            iv[offset + i] = (byte) counter;
+            counter >>>= 8;
+        }
+    }
+
+    /**
+     * Returns the id of the key used for encryption.
+     *
+     * @return Active key id.
+     */
+    public String getActiveKeyId() {
+        return activeKeyId;
+    }
+
+    /**
+     * Returns the number of bytes produced by encrypting the given number of plaintext bytes.
+     *
+     * @param plaintextLength Length of the plaintext.
+     * @return Length of the header, IV, ciphertext and tag.
+     */
+    public int encryptedLength(int plaintextLength) {
+        return header.length + IV_LENGTH_BYTE + plaintextLength + TAG_LENGTH_BYTE;
     }
 
     /**
@@ -39,21 +233,50 @@ public class EncryptionUtil {
      * @throws Exception If encryption fails.
      */
     public String encrypt(String plaintext) throws Exception {
-        byte[] iv = new byte[IV_LENGTH_BYTE];
-        SecureRandom random = new SecureRandom();
-        random.nextBytes(iv);
+        byte[] input = plaintext.getBytes(StandardCharsets.UTF_8);
+        return encrypt(input, 0, input.length);
+    }
+
+    /**
+     * Encrypts a range of the given plaintext bytes using AES-GCM.
+     *
+     * @param plaintext The buffer holding the plaintext.
+     * @param offset    Offset of the plaintext in the buffer.
+     * @param length    Length of the plaintext.
+     * @return Encrypted data as a Base64 encoded string.
+     * @throws Exception If encryption fails.
+     */
+    public String encrypt(byte[] plaintext, int offset, int length) throws Exception {
+        byte[] encrypted = new byte[encryptedLength(length)];
+        System.arraycopy(header, 0, encrypted, 0, header.length);
+        nextIv(encrypted, header.length);
 
-        Cipher cipher = Cipher.getInstance(AES_GCM_NOPADDING);
-        GCMParameterSpec spec = new GCMParameterSpec(TAG_LENGTH_BIT, iv);
+        Cipher cipher = CIPHER.get();
+        GCMParameterSpec spec = new GCMParameterSpec(TAG_LENGTH_BIT, encrypted, header.length, IV_LENGTH_BYTE);
         cipher.init(Cipher.ENCRYPT_MODE, secretKey, spec);
+        cipher.doFinal(plaintext, offset, length, encrypted, header.length + IV_LENGTH_BYTE);
 
-        byte[] encrypted = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(encrypted);
+    }
 
-        byte[] encryptedWithIv = new byte[IV_LENGTH_BYTE + encrypted.length];
-        System.arraycopy(iv, 0, encryptedWithIv, 0, IV_LENGTH_BYTE);
-        System.arraycopy(encrypted, 0, encryptedWithIv, IV_LENGTH_BYTE, encrypted.length);
+    /**
+     * Encrypts the remaining bytes of the plaintext buffer using AES-GCM, writing the header and
+     * IV followed by the ciphertext and tag into the output buffer.
+     *
+     * @param plaintext The plaintext; its position is advanced to its limit.
+     * @param out       The output buffer, with at least {@link #encryptedLength} bytes remaining.
+     * @return Number of bytes written.
+     * @throws Exception If encryption fails.
+     */
+    public int encrypt(ByteBuffer plaintext, ByteBuffer out) throws Exception {
+        byte[] iv = IV_BUFFER.get();
+        nextIv(iv, 0);
+        out.put(header);
+        out.put(iv);
 
-        return Base64.getEncoder().encodeToString(encryptedWithIv);
+        Cipher cipher = CIPHER.get();
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+        return header.length + IV_LENGTH_BYTE + cipher.doFinal(plaintext, out);
     }
 
     /**
@@ -64,15 +287,134 @@ public class EncryptionUtil {
      * @throws Exception If decryption fails.
      */
     public String decrypt(String ciphertext) throws Exception {
+        return new String(decryptBytes(ciphertext), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decrypts the given ciphertext using AES-GCM with the key named in its header, or with the
+     * legacy key if it has none.
+     *
+     * @param ciphertext The Base64 encoded ciphertext to decrypt.
+     * @return Decrypted plaintext bytes.
+     * @throws Exception If decryption fails.
+     */
+    public byte[] decryptBytes(String ciphertext) throws Exception {
         byte[] decoded = Base64.getDecoder().decode(ciphertext);
-        byte[] iv = Arrays.copyOfRange(decoded, 0, IV_LENGTH_BYTE);
-        byte[] encrypted = Arrays.copyOfRange(decoded, IV_LENGTH_BYTE, decoded.length);
 
-        Cipher cipher = Cipher.getInstance(AES_GCM_NOPADDING);
-        GCMParameterSpec spec = new GCMParameterSpec(TAG_LENGTH_BIT, iv);
-        cipher.init(Cipher.DECRYPT_MODE, secretKey, spec);
+        int headerLength = headerLength(decoded);
+        SecretKey key = headerLength > 0 ? decryptionKeys.get(keyId(decoded)) : null;
+        if (key != null) {
+            try {
+                return decrypt(key, decoded, headerLength);
+            } catch (AEADBadTagException e) {
+                // A legacy IV can look like a header by chance.
+                if (legacyKey == null) {
+                    throw e;
+                }
+            }
+        }
+        if (legacyKey == null) {
+            throw new GeneralSecurityException("No key available for ciphertext.");
+        }
+        return decrypt(legacyKey, decoded, 0);
+    }
 
-        byte[] decrypted = cipher.doFinal(encrypted);
-        return new String(decrypted, StandardCharsets.UTF_8);
+    /**
+     * Decrypts an IV followed by the ciphertext and tag.
+     *
+     * @param key     Decryption key.
+     * @param decoded Buffer holding the ciphertext.
+     * @param offset  Offset of the IV in the buffer.
+     * @return Decrypted plaintext bytes.
+     * @throws Exception If decryption or authentication fails.
+     */
+    private static byte[] decrypt(SecretKey key, byte[] decoded, int offset) throws Exception {
+        Cipher cipher = CIPHER.get();
+        GCMParameterSpec spec = new GCMParameterSpec(TAG_LENGTH_BIT, decoded, offset, IV_LENGTH_BYTE);
+        cipher.init(Cipher.DECRYPT_MODE, key, spec);
+        return cipher.doFinal(decoded, offset + IV_LENGTH_BYTE, decoded.length - offset - IV_LENGTH_BYTE);
+    }
+
+    /**
+     * Decrypts the remaining bytes of the ciphertext buffer, a header and IV followed by the
+     * ciphertext and tag, using AES-GCM.
+     *
+     * @param ciphertext The header, IV, ciphertext and tag; its position is advanced to its limit.
+     * @param out        The output buffer for the plaintext.
+     * @return Number of bytes written.
+     * @throws Exception If the key is unknown, or decryption or authentication fails.
+     */
+    public int decrypt(ByteBuffer ciphertext, ByteBuffer out) throws Exception {
+        if (ciphertext.remaining() < HEADER_FIXED_LENGTH || ciphertext.get() != HEADER_MAGIC
+                || ciphertext.get() != HEADER_VERSION) {
+            throw new GeneralSecurityException("Missing ciphertext header.");
+        }
+        byte[] keyId = KEY_ID_BUFFER.get();
+        int keyIdLength = ciphertext.get() & 0xFF;
+        ciphertext.get(keyId, 0, keyIdLength);
+        SecretKey key = decryptionKeys.get(new String(keyId, 0, keyIdLength, StandardCharsets.UTF_8));
+        if (key == null) {
+            throw new GeneralSecurityException("No key available for ciphertext.");
+        }
+
+        byte[] iv = IV_BUFFER.get();
+        ciphertext.get(iv);
+
+        Cipher cipher = CIPHER.get();
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+        return cipher.doFinal(ciphertext, out);
+    }
+
+    /**
+     * Checks whether a ciphertext was produced with the active key. Only the header is decoded.
+     *
+     * @param ciphertext String holding the Base64 encoded ciphertext.
+     * @param offset     Offset of the ciphertext in the string.
+     * @return True if the ciphertext does not need re-encryption.
+     */
+    public boolean isEncryptedWithActiveKey(String ciphertext, int offset) {
+        int prefixChars = ((header.length + 2) / 3) * 4;
+        if (ciphertext.length() - offset < prefixChars) {
+            return false;
+        }
+        byte[] prefix;
+        try {
+            prefix = Base64.getDecoder().decode(ciphertext.substring(offset, offset + prefixChars));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (prefix.length < header.length) {
+            return false;
+        }
+        for (int i = 0; i < header.length; i++) {
+            if (prefix[i] != header[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the length of the header at the start of a decoded ciphertext.
+     *
+     * @param decoded The decoded ciphertext.
+     * @return Header length, or 0 if the ciphertext has no header.
+     */
+    private static int headerLength(byte[] decoded) {
+        if (decoded.length < HEADER_FIXED_LENGTH || decoded[0] != HEADER_MAGIC || decoded[1] != HEADER_VERSION) {
+            return 0;
+        }
+        int headerLength = HEADER_FIXED_LENGTH + (decoded[2] & 0xFF);
+        return decoded.length >= headerLength + IV_LENGTH_BYTE + TAG_LENGTH_BYTE ? headerLength : 0;
+    }
+
+    /**
+     * Reads the key id from the header of a decoded ciphertext.
+     *
+     * @param decoded The decoded ciphertext.
+     * @return Key id.
+     */
+    private static String keyId(byte[] decoded) {
+        return new String(decoded, HEADER_FIXED_LENGTH, decoded[2] & 0xFF, StandardCharsets.UTF_8);
     }
 }
@@ -5,12 +5,29 @@ import org.ejml.simple.SimpleMatrix;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.Arrays;
+
 /**
  * Utility class for advanced mathematical operations.
  */
 @Component
 public class MathUtil {
 
+    static final int MATRIX_SIZE = 128;
+    static final int SIGN_MATRIX_SIZE = MATRIX_SIZE - 1;
+    static final int PACKED_SIGN_MATRIX_LENGTH = 2 + (SIGN_MATRIX_SIZE * SIGN_MATRIX_SIZE + 7) / 8;
+
+    /**
+     * log(1 + b / 255) for every byte value, the only values the non-linear transform can produce.
+     */
+    private static final double[] LOG_TABLE = new double[256];
+
+    static {
+        for (int b = 0; b < LOG_TABLE.length; b++) {
+            LOG_TABLE[b] = Math.log(1 + b / 255.0);
+        }
+    }
+
     @Autowired
     private EncryptionUtil encryptionUtil;
 
@@ -42,7 +59,7 @@ public class MathUtil {
      * @return Transformed SecureMatrix.
      */
     public SecureMatrix nonLinearTransform(SecureMatrix secureMatrix) {
-        SimpleMatrix matrix = secureMatrix.getMatrix().copy();
+        SimpleMatrix matrix = secureMatrix.getMatrix();
 
         for (int i = 0; i < matrix.numRows(); i++) {
             for (int j = 0; j < matrix.numCols(); j++) {
@@ -99,7 +116,56 @@ public class MathUtil {
         }
 
         String binaryString = binary.toString();
-        String encryptedBinary = encryptionUtil.encrypt(binaryString);
-        return encryptedBinary;
+        return encryptionUtil.encrypt(binaryString);
+    }
+
+    /**
+     * Runs the whole pipeline of {@link #generateSecureMatrix}, {@link #nonLinearTransform} and
+     * {@link #calculateDerivative} in a single pass over primitives, and writes the signs of the
+     * derivative as a packed bitset: one byte each for the row and column count, followed by the
+     * cells in row-major order, most significant bit first, with non-negative cells as set bits.
+     * <p>
+     * Cell (i, j) of the input matrix is byte {@code (i * 128 + j) % n} of the input, so the
+     * transformed value is a table lookup. The row difference is kept for the previous column
+     * only, and the column difference of two row differences yields each output cell.
+     *
+     * @param inputBytes Input bytes.
+     * @param out        Output buffer of at least {@link #PACKED_SIGN_MATRIX_LENGTH} bytes after the offset.
+     * @param offset     Offset in the output buffer.
+     * @return Number of bytes written.
+     */
+    int writePackedSignMatrix(byte[] inputBytes, byte[] out, int offset) {
+        out[offset] = (byte) SIGN_MATRIX_SIZE;
+        out[offset + 1] = (byte) SIGN_MATRIX_SIZE;
+        Arrays.fill(out, offset + 2, offset + PACKED_SIGN_MATRIX_LENGTH, (byte) 0);
+        int bits = offset + 2;
+        int n = inputBytes.length;
+        int pos = 0;
+        int upper = 0;
+        int lower = MATRIX_SIZE % n;
+        for (int i = 0; i < SIGN_MATRIX_SIZE; i++) {
+            double previous = LOG_TABLE[inputBytes[lower] & 0xFF] - LOG_TABLE[inputBytes[upper] & 0xFF];
+            for (int j = 1; j < MATRIX_SIZE; j++) {
+                if (++upper == n) {
+                    upper = 0;
+                }
+                if (++lower == n) {
+                    lower = 0;
+                }
+                double current = LOG_TABLE[inputBytes[lower] & 0xFF] - LOG_TABLE[inputBytes[upper] & 0xFF];
+                if (current - previous >= 0) {
+                    out[bits + (pos >>> 3)] |= (byte) (0x80 >>> (pos & 7));
+                }
+                pos++;
+                previous = current;
+            }
+            if (++upper == n) {
+                upper = 0;
+            }
+            if (++lower == n) {
+                lower = 0;
+            }
+        }
+        return PACKED_SIGN_MATRIX_LENGTH;
     }
 }
@@ -0,0 +1,237 @@
+package com.msinyu.jwtservice.util;
+
+import com.msinyu.jwtservice.metrics.AuthMetrics;
+import com.msinyu.jwtservice.metrics.AuthMetrics.VectorStage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes stored password vectors.
+ * <p>
+ * Two formats exist in {@code password_history.password_vector}:
+ * <ul>
+ *     <li>Legacy: Base64 of the Deflated, Base64 encoded AES-GCM ciphertext of the '0'/'1' sign
+ *     matrix with ';' row delimiters (about 16KB of plaintext).</li>
+ *     <li>{@value #V2_PREFIX}: the prefix followed by the Base64 encoded AES-GCM ciphertext of a
+ *     payload made of a codec byte and the bit-packed sign matrix (about 2KB of plaintext), which
+ *     is Deflated before encryption whenever that makes it smaller.</li>
+ * </ul>
+ * Both formats decode to the same packed sign matrix, which lets legacy rows be migrated. A
+ * vector is only current once it is also encrypted with the active key, so the same migration
+ * re-encrypts vectors after a key rotation.
+ */
+@Component
+public class PasswordVectorCodec {
+
+    public static final String V2_PREFIX = "v2:";
+
+    static final byte CODEC_RAW = 0;
+    static final byte CODEC_DEFLATE = 1;
+
+    /**
+     * Largest packed matrix the two dimension bytes can describe.
+     */
+    private static final int MAX_PACKED_LENGTH = 2 + (255 * 255 + 7) / 8;
+    private static final int MAX_LEGACY_LENGTH = 64 * 1024;
+
+    private static final ThreadLocal<byte[]> PACKED_BUFFER = ThreadLocal.withInitial(() -> new byte[1 + MAX_PACKED_LENGTH]);
+    private static final ThreadLocal<byte[]> COMPRESSED_BUFFER = ThreadLocal.withInitial(() -> new byte[1 + MAX_PACKED_LENGTH]);
+
+    @Autowired
+    private MathUtil mathUtil;
+
+    @Autowired
+    private EncryptionUtil encryptionUtil;
+
+    @Autowired
+    private CompressionUtil compressionUtil;
+
+    @Autowired
+    private AuthMetrics authMetrics;
+
+    @Value("${password.vector.compression.enabled}")
+    private boolean compressionEnabled;
+
+    /**
+     * Generates a password vector in the current format from a password hash.
+     *
+     * @param passwordHash Hashed password.
+     * @return Stored representation of the vector.
+     * @throws Exception If encryption fails.
+     */
+    public String encode(String passwordHash) throws Exception {
+        byte[] payload = PACKED_BUFFER.get();
+        try {
+            long start = System.nanoTime();
+            int length = mathUtil.writePackedSignMatrix(passwordHash.getBytes(), payload, 1);
+            authMetrics.vectorStage(VectorStage.SIGN_MATRIX).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return encodePacked(payload, length);
+        } finally {
+            Arrays.fill(payload, (byte) 0);
+        }
+    }
+
+    /**
+     * Compresses and encrypts a packed sign matrix. Compression is skipped when disabled or when
+     * it would not save at least one byte.
+     *
+     * @param payload Buffer holding the packed matrix at offset 1, with room for the codec byte.
+     * @param length  Length of the packed matrix.
+     * @return Stored representation of the vector.
+     * @throws Exception If encryption fails.
+     */
+    private String encodePacked(byte[] payload, int length) throws Exception {
+        if (compressionEnabled) {
+            byte[] compressed = COMPRESSED_BUFFER.get();
+            try {
+                long start = System.nanoTime();
+                int compressedLength = compressionUtil.deflate(payload, 1, length, compressed, 1, length - 1);
+                authMetrics.vectorStage(VectorStage.DEFLATE).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                if (compressedLength >= 0) {
+                    compressed[0] = CODEC_DEFLATE;
+                    return V2_PREFIX + encrypt(compressed, 1 + compressedLength);
+                }
+            } finally {
+                Arrays.fill(compressed, (byte) 0);
+            }
+        }
+        payload[0] = CODEC_RAW;
+        return V2_PREFIX + encrypt(payload, 1 + length);
+    }
+
+    /**
+     * Encrypts the start of a buffer, timing the encryption stage.
+     *
+     * @param payload Buffer holding the payload.
+     * @param length  Length of the payload.
+     * @return Base64 encoded ciphertext.
+     * @throws Exception If encryption fails.
+     */
+    private String encrypt(byte[] payload, int length) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return encryptionUtil.encrypt(payload, 0, length);
+        } finally {
+            authMetrics.vectorStage(VectorStage.ENCRYPT).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Checks whether a stored vector is in the current format and encrypted with the active key.
+     *
+     * @param stored Stored representation of the vector.
+     * @return True if the vector does not need migration.
+     */
+    public boolean isCurrent(String stored) {
+        return isV2(stored) && encryptionUtil.isEncryptedWithActiveKey(stored, V2_PREFIX.length());
+    }
+
+    /**
+     * Checks whether a stored vector is in the {@value #V2_PREFIX} format.
+     *
+     * @param stored Stored representation of the vector.
+     * @return True if the vector is not a legacy vector.
+     */
+    private boolean isV2(String stored) {
+        return stored.startsWith(V2_PREFIX);
+    }
+
+    /**
+     * Decodes a stored vector of any format into its packed sign matrix.
+     *
+     * @param stored Stored representation of the vector.
+     * @return Packed sign matrix as written by {@link MathUtil#writePackedSignMatrix}.
+     * @throws Exception If the vector cannot be decrypted or is malformed.
+     */
+    public byte[] decode(String stored) throws Exception {
+        if (!isV2(stored)) {
+            return decodeLegacy(stored);
+        }
+        byte[] payload = encryptionUtil.decryptBytes(stored.substring(V2_PREFIX.length()));
+        try {
+            if (payload.length > 0 && payload[0] == CODEC_RAW) {
+                return Arrays.copyOfRange(payload, 1, payload.length);
+            }
+            if (payload.length > 0 && payload[0] == CODEC_DEFLATE) {
+                byte[] packed = new byte[MAX_PACKED_LENGTH];
+                int length = compressionUtil.inflate(payload, 1, payload.length - 1, packed, 0, packed.length);
+                return Arrays.copyOf(packed, length);
+            }
+            throw new IllegalArgumentException("Unsupported password vector codec.");
+        } finally {
+            Arrays.fill(payload, (byte) 0);
+        }
+    }
+
+    /**
+     * Re-encodes a stored vector of any format in the current format.
+     *
+     * @param stored Stored representation of the vector.
+     * @return Stored representation in the current format.
+     * @throws Exception If the vector cannot be decrypted or is malformed.
+     */
+    public String migrate(String stored) throws Exception {
+        byte[] packed = decode(stored);
+        byte[] payload = new byte[1 + packed.length];
+        System.arraycopy(packed, 0, payload, 1, packed.length);
+        try {
+            return encodePacked(payload, packed.length);
+        } finally {
+            Arrays.fill(payload, (byte) 0);
+            Arrays.fill(packed, (byte) 0);
+        }
+    }
+
+    /**
+     * Decodes a legacy vector and packs its '0'/'1' rows into a bitset.
+     *
+     * @param stored Legacy stored representation.
+     * @return Packed sign matrix.
+     * @throws Exception If the vector cannot be inflated, decrypted or parsed.
+     */
+    private byte[] decodeLegacy(String stored) throws Exception {
+        byte[] compressed = Base64.getDecoder().decode(stored);
+        byte[] inflated = new byte[MAX_LEGACY_LENGTH];
+        int inflatedLength = compressionUtil.inflate(compressed, 0, compressed.length, inflated, 0, inflated.length);
+        String ciphertext = new String(inflated, 0, inflatedLength, StandardCharsets.UTF_8);
+        String binary = encryptionUtil.decrypt(ciphertext);
+
+        int rows = 0;
+        int cols = binary.indexOf(';');
+        if (cols <= 0) {
+            throw new IllegalArgumentException("Malformed legacy password vector.");
+        }
+        for (int i = 0; i < binary.length(); i++) {
+            if (binary.charAt(i) == ';') {
+                rows++;
+            }
+        }
+        if (binary.length() != rows * (cols + 1) || rows > 255 || cols > 255) {
+            throw new IllegalArgumentException("Malformed legacy password vector.");
+        }
+
+        byte[] packed = new byte[2 + (rows * cols + 7) / 8];
+        packed[0] = (byte) rows;
+        packed[1] = (byte) cols;
+        int bit = 0;
+        for (int i = 0; i < binary.length(); i++) {
+            char c = binary.charAt(i);
+            if (c == ';') {
+                continue;
+            }
+            if (c == '1') {
+                packed[2 + (bit >>> 3)] |= (byte) (0x80 >>> (bit & 7));
+            } else if (c != '0') {
+                throw new IllegalArgumentException("Malformed legacy password vector.");
+            }
+            bit++;
+        }
+        return packed;
+    }
+}
@@ -0,0 +1,51 @@
+package com.msinyu.jwtservice.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket.
+ * <p>
+ * The whole state is one timestamp: the time at which the bucket is full again. Taking a token
+ * moves it one refill interval further into the future, and the take is refused when that would
+ * put it more than a full bucket ahead of now. Updates are a compare-and-set on that timestamp,
+ * so concurrent takes never block and never over-admit.
+ */
+public class TokenBucket {
+
+    private final long refillNanos;
+    private final long burstNanos;
+    private final AtomicLong fullAt;
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param capacity    Maximum number of tokens.
+     * @param refillNanos Time to refill one token, in nanoseconds.
+     * @param nowNanos    Current {@link System#nanoTime()}.
+     */
+    public TokenBucket(long capacity, long refillNanos, long nowNanos) {
+        this.refillNanos = refillNanos;
+        this.burstNanos = capacity * refillNanos;
+        this.fullAt = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @param nowNanos Current {@link System#nanoTime()}.
+     * @return 0 if a token was taken, otherwise the nanoseconds until one is available.
+     */
+    public long tryTake(long nowNanos) {
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, nowNanos) + refillNanos;
+            long wait = next - nowNanos - burstNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.msinyu.jwtservice;
+
+import com.msinyu.jwtservice.dto.request.BatchValidateTokenRequest;
+import com.msinyu.jwtservice.dto.request.LoginRequest;
+import com.msinyu.jwtservice.dto.request.RegisterRequest;
+import com.msinyu.jwtservice.dto.response.ApiResponse;
+import com.msinyu.jwtservice.dto.response.TokenResponse;
+import com.msinyu.jwtservice.dto.response.TokenValidationResponse;
+import com.msinyu.jwtservice.repository.UserRepository;
+import com.msinyu.jwtservice.security.SigningKeyCache;
+import com.msinyu.jwtservice.service.UserService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doThrow;
+
+/**
+ * Integration tests for batch token validation when a user lookup fails.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+@TestPropertySource(locations = "classpath:application-test.properties")
+public class BatchValidationTests {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private SigningKeyCache signingKeyCache;
+
+    @SpyBean
+    private UserService userService;
+
+    @Test
+    public void testFailedLookupIsReportedAsInvalidToken() {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            tokens.add(registerAndLogin("batchuser" + i));
+        }
+
+        // The middle token's key is not cached, and loading its user fails
+        Long failingUserId = userRepository.findCredentialsByUsername("batchuser1").get().getId();
+        signingKeyCache.invalidate(failingUserId);
+        doThrow(new DataAccessResourceFailureException("Connection lost"))
+                .when(userService).findCredentialsById(failingUserId);
+
+        BatchValidateTokenRequest batchRequest = new BatchValidateTokenRequest();
+        batchRequest.setTokens(tokens);
+
+        ResponseEntity<ApiResponse<List<TokenValidationResponse>>> batchResponse = restTemplate.exchange(
+                "/api/auth/validate/batch",
+                HttpMethod.POST,
+                new HttpEntity<>(batchRequest),
+                new ParameterizedTypeReference<ApiResponse<List<TokenValidationResponse>>>() {}
+        );
+
+        assertThat(batchResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        List<TokenValidationResponse> results = batchResponse.getBody().getData();
+        assertThat(results).hasSize(3);
+        assertThat(results.get(0).isValid()).isTrue();
+        assertThat(results.get(0).getSubject()).isEqualTo("batchuser0");
+        assertThat(results.get(1).isValid()).isFalse();
+        assertThat(results.get(2).isValid()).isTrue();
+        assertThat(results.get(2).getSubject()).isEqualTo("batchuser2");
+    }
+
+    private String registerAndLogin(String username) {
+        RegisterRequest registerRequest = new RegisterRequest();
+        registerRequest.setUsername(username);
+        registerRequest.setPassword("SecurePass123");
+        ResponseEntity<String> registerResponse = restTemplate.postForEntity(
+                "/api/auth/register", new HttpEntity<>(registerRequest), String.class);
+        assertThat(registerResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+        LoginRequest loginRequest = new LoginRequest();
+        loginRequest.setUsername(username);
+        loginRequest.setPassword("SecurePass123");
+        ResponseEntity<ApiResponse<TokenResponse>> loginResponse = restTemplate.exchange(
+                "/api/auth/login",
+                HttpMethod.POST,
+                new HttpEntity<>(loginRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+        );
+        assertThat(loginResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        return loginResponse.getBody().getData().getToken();
+    }
+}
@@ -0,0 +1,165 @@
+package com.msinyu.jwtservice;
+
+import com.msinyu.jwtservice.dto.request.LoginRequest;
+import com.msinyu.jwtservice.dto.request.RegisterRequest;
+import com.msinyu.jwtservice.dto.request.ValidateTokenRequest;
+import com.msinyu.jwtservice.dto.response.ApiResponse;
+import com.msinyu.jwtservice.dto.response.SuccessResponse;
+import com.msinyu.jwtservice.dto.response.TokenResponse;
+import com.msinyu.jwtservice.dto.response.TokenValidationResponse;
+import com.msinyu.jwtservice.repository.UserRepository;
+import com.msinyu.jwtservice.security.ServiceKeyPairs;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.Jwts;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Integration tests for ES256 token signing and the published JSON Web Key Set.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "jwt.signing.algorithm=ES256")
+@ActiveProfiles("test")
+@TestPropertySource(locations = "classpath:application-test.properties")
+public class Es256SigningTests {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ServiceKeyPairs serviceKeyPairs;
+
+    @BeforeEach
+    public void setUp() {
+        userRepository.deleteAll();
+    }
+
+    @Test
+    public void testTokensVerifyOfflineAndAreRevokedByPasswordChange() throws Exception {
+        RegisterRequest registerRequest = new RegisterRequest();
+        registerRequest.setUsername("testuser");
+        registerRequest.setPassword("SecurePass123");
+        ResponseEntity<ApiResponse<SuccessResponse>> registerResponse = restTemplate.exchange(
+                "/api/auth/register",
+                HttpMethod.POST,
+                new HttpEntity<>(registerRequest),
+                new ParameterizedTypeReference<ApiResponse<SuccessResponse>>() {}
+        );
+        assertThat(registerResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+        LoginRequest loginRequest = new LoginRequest();
+        loginRequest.setUsername("testuser");
+        loginRequest.setPassword("SecurePass123");
+        ResponseEntity<ApiResponse<TokenResponse>> loginResponse = restTemplate.exchange(
+                "/api/auth/login",
+                HttpMethod.POST,
+                new HttpEntity<>(loginRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+        );
+        assertThat(loginResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        String token = loginResponse.getBody().getData().getToken();
+
+        // The active key is published first, followed by the next one
+        ResponseEntity<Map<String, List<Map<String, String>>>> jwksResponse = restTemplate.exchange(
+                "/.well-known/jwks.json",
+                HttpMethod.GET,
+                null,
+                new ParameterizedTypeReference<Map<String, List<Map<String, String>>>>() {}
+        );
+        assertThat(jwksResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(jwksResponse.getHeaders().getCacheControl()).contains("max-age");
+        List<Map<String, String>> keys = jwksResponse.getBody().get("keys");
+        assertThat(keys).hasSizeGreaterThanOrEqualTo(2);
+        Map<String, String> jwk = keys.get(0);
+        assertThat(jwk.get("kid")).isEqualTo(serviceKeyPairs.getActive().getKeyId());
+        assertThat(jwk.get("alg")).isEqualTo("ES256");
+
+        // A resource server verifies the token with the published key alone
+        Jws<Claims> jws = Jwts.parser().setSigningKey(toPublicKey(jwk)).parseClaimsJws(token);
+        assertThat(jws.getHeader().getKeyId()).isEqualTo(jwk.get("kid"));
+        assertThat(jws.getBody().getSubject()).isEqualTo("testuser");
+
+        ValidateTokenRequest validateRequest = new ValidateTokenRequest();
+        validateRequest.setToken(token);
+        ResponseEntity<ApiResponse<TokenValidationResponse>> validateResponse = restTemplate.exchange(
+                "/api/auth/validate",
+                HttpMethod.POST,
+                new HttpEntity<>(validateRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenValidationResponse>>() {}
+        );
+        assertThat(validateResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        // Changing the password revokes the token for this service
+        ResponseEntity<ApiResponse<SuccessResponse>> changePasswordResponse = restTemplate.exchange(
+                "/api/auth/change-password?username=testuser&newPassword=NewSecurePass456",
+                HttpMethod.POST,
+                new HttpEntity<>(null, new HttpHeaders()),
+                new ParameterizedTypeReference<ApiResponse<SuccessResponse>>() {}
+        );
+        assertThat(changePasswordResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        ResponseEntity<ApiResponse<TokenValidationResponse>> revokedResponse = restTemplate.exchange(
+                "/api/auth/validate",
+                HttpMethod.POST,
+                new HttpEntity<>(validateRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenValidationResponse>>() {}
+        );
+        assertThat(revokedResponse.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+    }
+
+    @Test
+    public void testRotatedKeyStaysPublished() throws Exception {
+        String retiredKeyId = serviceKeyPairs.getActive().getKeyId();
+        serviceKeyPairs.rotate();
+
+        assertThat(serviceKeyPairs.getActive().getKeyId()).isNotEqualTo(retiredKeyId);
+        assertThat(serviceKeyPairs.getPublicKey(retiredKeyId)).isNotNull();
+        assertThat(serviceKeyPairs.toJwks()).hasSize(3);
+    }
+
+    /**
+     * Rebuilds a P-256 public key from a JSON Web Key.
+     *
+     * @param jwk JSON Web Key.
+     * @return Public key.
+     * @throws Exception If the key cannot be built.
+     */
+    private PublicKey toPublicKey(Map<String, String> jwk) throws Exception {
+        AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+        parameters.init(new ECGenParameterSpec("secp256r1"));
+        ECPoint point = new ECPoint(
+                new BigInteger(1, Base64.getUrlDecoder().decode(jwk.get("x"))),
+                new BigInteger(1, Base64.getUrlDecoder().decode(jwk.get("y"))));
+        return KeyFactory.getInstance("EC")
+                .generatePublic(new ECPublicKeySpec(point, parameters.getParameterSpec(ECParameterSpec.class)));
+    }
+}
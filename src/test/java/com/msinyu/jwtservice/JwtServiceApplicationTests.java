@@ -1,18 +1,28 @@
 package com.msinyu.jwtservice;
 
+import com.msinyu.jwtservice.dto.request.BatchValidateTokenRequest;
 import com.msinyu.jwtservice.dto.request.LoginRequest;
+import com.msinyu.jwtservice.dto.request.RefreshTokenRequest;
 import com.msinyu.jwtservice.dto.request.RegisterRequest;
+import com.msinyu.jwtservice.dto.request.RevokeTokenRequest;
+import com.msinyu.jwtservice.dto.request.ValidateTokenRequest;
 import com.msinyu.jwtservice.dto.response.ApiResponse;
 import com.msinyu.jwtservice.dto.response.SuccessResponse;
 import com.msinyu.jwtservice.dto.response.TokenResponse;
+import com.msinyu.jwtservice.dto.response.TokenValidationResponse;
+import com.msinyu.jwtservice.model.RefreshToken;
 import com.msinyu.jwtservice.model.User;
+import com.msinyu.jwtservice.repository.RefreshTokenRepository;
 import com.msinyu.jwtservice.repository.UserRepository;
 import com.msinyu.jwtservice.security.JwtUtil;
+import com.msinyu.jwtservice.security.SigningKeyCache;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.http.impl.client.HttpClients;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.crypto.bcrypt.BCrypt;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.boot.test.web.server.LocalServerPort;
@@ -25,6 +35,10 @@ import org.springframework.test.context.TestPropertySource;
 import org.springframework.web.client.DefaultResponseErrorHandler;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -44,9 +58,18 @@ public class JwtServiceApplicationTests {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private RefreshTokenRepository refreshTokenRepository;
+
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private SigningKeyCache signingKeyCache;
+
     private String baseUrl;
 
     @BeforeEach
@@ -89,6 +112,24 @@ public class JwtServiceApplicationTests {
         assertThat(response.getBody().getData()).isNull();
     }
 
+    @Test
+    public void testInvalidLoginRequest() {
+        LoginRequest loginRequest = new LoginRequest();
+        loginRequest.setUsername(" ");
+        loginRequest.setPassword("wrongpassword");
+
+        ResponseEntity<ApiResponse<TokenResponse>> response = restTemplate.exchange(
+                "/login",
+                HttpMethod.POST,
+                new HttpEntity<>(loginRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+        );
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(response.getBody()).isNotNull();
+        assertThat(response.getBody().getMessage()).isEqualTo("Invalid request.");
+    }
+
 
     @Test
     public void testUserRegistrationAndLogin() {
@@ -145,6 +186,40 @@ public class JwtServiceApplicationTests {
     }
 
 
+    @Test
+    public void testDuplicateRegistrationConflicts() {
+        RegisterRequest registerRequest = new RegisterRequest();
+        registerRequest.setUsername("testuser");
+        registerRequest.setPassword("SecurePass123");
+
+        // Concurrent registrations of the same username: one wins, the others conflict
+        List<CompletableFuture<HttpStatus>> attempts = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            attempts.add(CompletableFuture.supplyAsync(() -> restTemplate.exchange(
+                    "/register",
+                    HttpMethod.POST,
+                    new HttpEntity<>(registerRequest),
+                    new ParameterizedTypeReference<ApiResponse<SuccessResponse>>() {}
+            ).getStatusCode()));
+        }
+        List<HttpStatus> statuses = new ArrayList<>();
+        attempts.forEach(attempt -> statuses.add(attempt.join()));
+        assertThat(statuses).containsOnly(HttpStatus.CREATED, HttpStatus.CONFLICT);
+        assertThat(statuses).containsOnlyOnce(HttpStatus.CREATED);
+
+        ResponseEntity<ApiResponse<SuccessResponse>> duplicateResponse = restTemplate.exchange(
+                "/register",
+                HttpMethod.POST,
+                new HttpEntity<>(registerRequest),
+                new ParameterizedTypeReference<ApiResponse<SuccessResponse>>() {}
+        );
+
+        assertThat(duplicateResponse.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+        assertThat(duplicateResponse.getBody()).isNotNull();
+        assertThat(duplicateResponse.getBody().getMessage()).isEqualTo("Username already exists.");
+        assertThat(duplicateResponse.getBody().getData()).isNull();
+    }
+
     @Test
     public void testPasswordChangeAndTokenInvalidation() {
         // Register a new user
@@ -253,4 +328,441 @@ public class JwtServiceApplicationTests {
         assertThat(isNewTokenValid).isTrue();
     }
 
+    @Test
+    public void testTokenValidation() {
+        // Register a new user and log in
+        RegisterRequest registerRequest = new RegisterRequest();
+        registerRequest.setUsername("testuser");
+        registerRequest.setPassword("SecurePass123");
+
+        ResponseEntity<ApiResponse<SuccessResponse>> registerResponse = restTemplate.exchange(
+                "/register",
+                HttpMethod.POST,
+                new HttpEntity<>(registerRequest),
+                new ParameterizedTypeReference<ApiResponse<SuccessResponse>>() {}
+        );
+        assertThat(registerResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+        LoginRequest loginRequest = new LoginRequest();
+        loginRequest.setUsername("testuser");
+        loginRequest.setPassword("SecurePass123");
+
+        ResponseEntity<ApiResponse<TokenResponse>> loginResponse = restTemplate.exchange(
+                "/login",
+                HttpMethod.POST,
+                new HttpEntity<>(loginRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+        );
+        assertThat(loginResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        String token = loginResponse.getBody().getData().getToken();
+
+        // Validate the issued token
+        ValidateTokenRequest validateRequest = new ValidateTokenRequest();
+        validateRequest.setToken(token);
+
+        ResponseEntity<ApiResponse<TokenValidationResponse>> validateResponse = restTemplate.exchange(
+                "/validate",
+                HttpMethod.POST,
+                new HttpEntity<>(validateRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenValidationResponse>>() {}
+        );
+
+        assertThat(validateResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(validateResponse.getBody()).isNotNull();
+        assertThat(validateResponse.getBody().getMessage()).isEqualTo("Token is valid.");
+        assertThat(validateResponse.getBody().getData().isValid()).isTrue();
+        assertThat(validateResponse.getBody().getData().getSubject()).isEqualTo("testuser");
+        assertThat(validateResponse.getBody().getData().getExpiresAt()).isNotNull();
+
+        // A key derived from lazily loaded password vectors matches the one used at login
+        signingKeyCache.invalidate(userRepository.findCredentialsByUsername("testuser").get().getId());
+        ResponseEntity<ApiResponse<TokenValidationResponse>> uncachedResponse = restTemplate.exchange(
+                "/validate",
+                HttpMethod.POST,
+                new HttpEntity<>(validateRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenValidationResponse>>() {}
+        );
+        assertThat(uncachedResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        // Validate a batch mixing valid and tampered tokens
+        BatchValidateTokenRequest batchRequest = new BatchValidateTokenRequest();
+        batchRequest.setTokens(Arrays.asList(token, token.substring(0, token.length() - 2) + "xx", "not-a-token"));
+
+        ResponseEntity<ApiResponse<List<TokenValidationResponse>>> batchResponse = restTemplate.exchange(
+                "/validate/batch",
+                HttpMethod.POST,
+                new HttpEntity<>(batchRequest),
+                new ParameterizedTypeReference<ApiResponse<List<TokenValidationResponse>>>() {}
+        );
+
+        assertThat(batchResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(batchResponse.getBody()).isNotNull();
+        assertThat(batchResponse.getBody().getData()).hasSize(3);
+        assertThat(batchResponse.getBody().getData().get(0).isValid()).isTrue();
+        assertThat(batchResponse.getBody().getData().get(1).isValid()).isFalse();
+        assertThat(batchResponse.getBody().getData().get(2).isValid()).isFalse();
+
+        // Changing the password invalidates the token
+        ResponseEntity<ApiResponse<SuccessResponse>> changePasswordResponse = restTemplate.exchange(
+                "/change-password?username=testuser&newPassword=NewSecurePass456",
+                HttpMethod.POST,
+                new HttpEntity<>(null, new HttpHeaders()),
+                new ParameterizedTypeReference<ApiResponse<SuccessResponse>>() {}
+        );
+        assertThat(changePasswordResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        ResponseEntity<ApiResponse<TokenValidationResponse>> revokedResponse = restTemplate.exchange(
+                "/validate",
+                HttpMethod.POST,
+                new HttpEntity<>(validateRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenValidationResponse>>() {}
+        );
+
+        assertThat(revokedResponse.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        assertThat(revokedResponse.getBody()).isNotNull();
+        assertThat(revokedResponse.getBody().getMessage()).isEqualTo("Invalid token.");
+        assertThat(revokedResponse.getBody().getData()).isNull();
+    }
+
+    @Test
+    public void testRevokedTokenIsRejected() {
+        // Register a new user and log in from two devices
+        RegisterRequest registerRequest = new RegisterRequest();
+        registerRequest.setUsername("testuser");
+        registerRequest.setPassword("SecurePass123");
+
+        ResponseEntity<ApiResponse<SuccessResponse>> registerResponse = restTemplate.exchange(
+                "/register",
+                HttpMethod.POST,
+                new HttpEntity<>(registerRequest),
+                new ParameterizedTypeReference<ApiResponse<SuccessResponse>>() {}
+        );
+        assertThat(registerResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+        LoginRequest loginRequest = new LoginRequest();
+        loginRequest.setUsername("testuser");
+        loginRequest.setPassword("SecurePass123");
+
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            ResponseEntity<ApiResponse<TokenResponse>> loginResponse = restTemplate.exchange(
+                    "/login",
+                    HttpMethod.POST,
+                    new HttpEntity<>(loginRequest),
+                    new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+            );
+            assertThat(loginResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+            tokens.add(loginResponse.getBody().getData().getToken());
+        }
+
+        // Revoke the first token
+        RevokeTokenRequest revokeRequest = new RevokeTokenRequest();
+        revokeRequest.setToken(tokens.get(0));
+
+        ResponseEntity<ApiResponse<SuccessResponse>> revokeResponse = restTemplate.exchange(
+                "/revoke",
+                HttpMethod.POST,
+                new HttpEntity<>(revokeRequest),
+                new ParameterizedTypeReference<ApiResponse<SuccessResponse>>() {}
+        );
+        assertThat(revokeResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(revokeResponse.getBody().getMessage()).isEqualTo("Token revoked.");
+
+        // The revoked token is rejected, the other one stays valid
+        BatchValidateTokenRequest batchRequest = new BatchValidateTokenRequest();
+        batchRequest.setTokens(tokens);
+
+        ResponseEntity<ApiResponse<List<TokenValidationResponse>>> batchResponse = restTemplate.exchange(
+                "/validate/batch",
+                HttpMethod.POST,
+                new HttpEntity<>(batchRequest),
+                new ParameterizedTypeReference<ApiResponse<List<TokenValidationResponse>>>() {}
+        );
+        assertThat(batchResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(batchResponse.getBody().getData().get(0).isValid()).isFalse();
+        assertThat(batchResponse.getBody().getData().get(1).isValid()).isTrue();
+
+        // A revoked token cannot be revoked again
+        ResponseEntity<ApiResponse<SuccessResponse>> repeatedResponse = restTemplate.exchange(
+                "/revoke",
+                HttpMethod.POST,
+                new HttpEntity<>(revokeRequest),
+                new ParameterizedTypeReference<ApiResponse<SuccessResponse>>() {}
+        );
+        assertThat(repeatedResponse.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+    }
+
+    @Test
+    public void testRefreshTokenRotation() {
+        // Register a new user and log in
+        RegisterRequest registerRequest = new RegisterRequest();
+        registerRequest.setUsername("testuser");
+        registerRequest.setPassword("SecurePass123");
+
+        ResponseEntity<ApiResponse<SuccessResponse>> registerResponse = restTemplate.exchange(
+                "/register",
+                HttpMethod.POST,
+                new HttpEntity<>(registerRequest),
+                new ParameterizedTypeReference<ApiResponse<SuccessResponse>>() {}
+        );
+        assertThat(registerResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+        LoginRequest loginRequest = new LoginRequest();
+        loginRequest.setUsername("testuser");
+        loginRequest.setPassword("SecurePass123");
+
+        ResponseEntity<ApiResponse<TokenResponse>> loginResponse = restTemplate.exchange(
+                "/login",
+                HttpMethod.POST,
+                new HttpEntity<>(loginRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+        );
+        assertThat(loginResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        String firstRefreshToken = loginResponse.getBody().getData().getRefreshToken();
+        assertThat(firstRefreshToken).isNotNull();
+
+        // Exchange the refresh token for a new, valid token pair
+        RefreshTokenRequest refreshRequest = new RefreshTokenRequest();
+        refreshRequest.setRefreshToken(firstRefreshToken);
+
+        ResponseEntity<ApiResponse<TokenResponse>> refreshResponse = restTemplate.exchange(
+                "/refresh",
+                HttpMethod.POST,
+                new HttpEntity<>(refreshRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+        );
+        assertThat(refreshResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        String secondRefreshToken = refreshResponse.getBody().getData().getRefreshToken();
+        assertThat(secondRefreshToken).isNotEqualTo(firstRefreshToken);
+
+        ValidateTokenRequest validateRequest = new ValidateTokenRequest();
+        validateRequest.setToken(refreshResponse.getBody().getData().getToken());
+        ResponseEntity<ApiResponse<TokenValidationResponse>> validateResponse = restTemplate.exchange(
+                "/validate",
+                HttpMethod.POST,
+                new HttpEntity<>(validateRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenValidationResponse>>() {}
+        );
+        assertThat(validateResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(validateResponse.getBody().getData().getSubject()).isEqualTo("testuser");
+
+        // Reusing the first refresh token fails and revokes its successor
+        ResponseEntity<ApiResponse<TokenResponse>> reuseResponse = restTemplate.exchange(
+                "/refresh",
+                HttpMethod.POST,
+                new HttpEntity<>(refreshRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+        );
+        assertThat(reuseResponse.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        assertThat(reuseResponse.getBody().getMessage()).isEqualTo("Invalid refresh token.");
+
+        refreshRequest.setRefreshToken(secondRefreshToken);
+        ResponseEntity<ApiResponse<TokenResponse>> successorResponse = restTemplate.exchange(
+                "/refresh",
+                HttpMethod.POST,
+                new HttpEntity<>(refreshRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+        );
+        assertThat(successorResponse.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        assertThat(meterRegistry.get("auth.refresh").tag("outcome", "reused").counter().count()).isGreaterThanOrEqualTo(1);
+
+        // Changing the password revokes refresh tokens too
+        loginResponse = restTemplate.exchange(
+                "/login",
+                HttpMethod.POST,
+                new HttpEntity<>(loginRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+        );
+        refreshRequest.setRefreshToken(loginResponse.getBody().getData().getRefreshToken());
+
+        ResponseEntity<ApiResponse<SuccessResponse>> changePasswordResponse = restTemplate.exchange(
+                "/change-password?username=testuser&newPassword=NewSecurePass456",
+                HttpMethod.POST,
+                new HttpEntity<>(null, new HttpHeaders()),
+                new ParameterizedTypeReference<ApiResponse<SuccessResponse>>() {}
+        );
+        assertThat(changePasswordResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        ResponseEntity<ApiResponse<TokenResponse>> revokedResponse = restTemplate.exchange(
+                "/refresh",
+                HttpMethod.POST,
+                new HttpEntity<>(refreshRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+        );
+        assertThat(revokedResponse.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+
+        // A refresh token that survived a password change, as one issued by a racing login, is rejected
+        loginRequest.setPassword("NewSecurePass456");
+        loginResponse = restTemplate.exchange(
+                "/login",
+                HttpMethod.POST,
+                new HttpEntity<>(loginRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+        );
+        refreshRequest.setRefreshToken(loginResponse.getBody().getData().getRefreshToken());
+        User user = userRepository.findByUsernameWithPasswordHistories("testuser").orElse(null);
+        assertThat(user).isNotNull();
+        userRepository.updateKeyDigest(user.getId(), user.getRandomHash(), "rotated-random-hash", user.getKeyDigest());
+
+        ResponseEntity<ApiResponse<TokenResponse>> staleResponse = restTemplate.exchange(
+                "/refresh",
+                HttpMethod.POST,
+                new HttpEntity<>(refreshRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+        );
+        assertThat(staleResponse.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+
+        // A family past its maximum age cannot be exchanged, even with an unexpired token
+        signingKeyCache.invalidate(user.getId());
+        loginResponse = restTemplate.exchange(
+                "/login",
+                HttpMethod.POST,
+                new HttpEntity<>(loginRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+        );
+        refreshRequest.setRefreshToken(loginResponse.getBody().getData().getRefreshToken());
+        for (RefreshToken stored : refreshTokenRepository.findAll()) {
+            stored.setFamilyExpiresAt(System.currentTimeMillis() - 1);
+            refreshTokenRepository.save(stored);
+        }
+
+        ResponseEntity<ApiResponse<TokenResponse>> agedResponse = restTemplate.exchange(
+                "/refresh",
+                HttpMethod.POST,
+                new HttpEntity<>(refreshRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+        );
+        assertThat(agedResponse.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+    }
+
+    @Test
+    public void testOutdatedPasswordHashIsUpgradedOnLogin() throws InterruptedException {
+        RegisterRequest registerRequest = new RegisterRequest();
+        registerRequest.setUsername("testuser");
+        registerRequest.setPassword("SecurePass123");
+
+        ResponseEntity<ApiResponse<SuccessResponse>> registerResponse = restTemplate.exchange(
+                "/register",
+                HttpMethod.POST,
+                new HttpEntity<>(registerRequest),
+                new ParameterizedTypeReference<ApiResponse<SuccessResponse>>() {}
+        );
+        assertThat(registerResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+        // Store a hash with an outdated cost
+        User user = userRepository.findByUsernameWithPasswordHistories("testuser").orElse(null);
+        assertThat(user).isNotNull();
+        String outdatedHash = BCrypt.hashpw("SecurePass123", BCrypt.gensalt(4));
+        userRepository.updatePasswordHash(user.getId(), user.getPasswordHash(), outdatedHash);
+
+        LoginRequest loginRequest = new LoginRequest();
+        loginRequest.setUsername("testuser");
+        loginRequest.setPassword("SecurePass123");
+
+        ResponseEntity<ApiResponse<TokenResponse>> loginResponse = restTemplate.exchange(
+                "/login",
+                HttpMethod.POST,
+                new HttpEntity<>(loginRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+        );
+        assertThat(loginResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        String token = loginResponse.getBody().getData().getToken();
+
+        // The hash is replaced in the background
+        String upgradedHash = outdatedHash;
+        for (int i = 0; i < 50 && upgradedHash.equals(outdatedHash); i++) {
+            Thread.sleep(100);
+            upgradedHash = userRepository.findByUsernameWithPasswordHistories("testuser").get().getPasswordHash();
+        }
+        assertThat(upgradedHash).isNotEqualTo(outdatedHash);
+        assertThat(BCrypt.checkpw("SecurePass123", upgradedHash)).isTrue();
+
+        // Tokens issued before the upgrade remain valid
+        User upgradedUser = userRepository.findByUsernameWithPasswordHistories("testuser").orElse(null);
+        assertThat(jwtUtil.validateToken(token, upgradedUser)).isTrue();
+    }
+
+    @Test
+    public void testKeyDigestIsBackfilledOnLogin() {
+        RegisterRequest registerRequest = new RegisterRequest();
+        registerRequest.setUsername("testuser");
+        registerRequest.setPassword("SecurePass123");
+
+        ResponseEntity<ApiResponse<SuccessResponse>> registerResponse = restTemplate.exchange(
+                "/register",
+                HttpMethod.POST,
+                new HttpEntity<>(registerRequest),
+                new ParameterizedTypeReference<ApiResponse<SuccessResponse>>() {}
+        );
+        assertThat(registerResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+        // Simulate a user created before key digests were stored
+        User user = userRepository.findByUsernameWithPasswordHistories("testuser").orElse(null);
+        assertThat(user).isNotNull();
+        assertThat(user.getKeyDigest()).startsWith("v1:");
+        userRepository.updateKeyDigest(user.getId(), user.getRandomHash(), user.getRandomHash(), null);
+        signingKeyCache.invalidate(user.getId());
+
+        LoginRequest loginRequest = new LoginRequest();
+        loginRequest.setUsername("testuser");
+        loginRequest.setPassword("SecurePass123");
+
+        ResponseEntity<ApiResponse<TokenResponse>> loginResponse = restTemplate.exchange(
+                "/login",
+                HttpMethod.POST,
+                new HttpEntity<>(loginRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+        );
+        assertThat(loginResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        String token = loginResponse.getBody().getData().getToken();
+
+        // The digest is recomputed from the stored vectors and the random hash rotated with it
+        User backfilledUser = userRepository.findByUsernameWithPasswordHistories("testuser").orElse(null);
+        assertThat(backfilledUser).isNotNull();
+        assertThat(backfilledUser.getKeyDigest()).isEqualTo(user.getKeyDigest());
+        assertThat(backfilledUser.getRandomHash()).isNotEqualTo(user.getRandomHash());
+
+        signingKeyCache.invalidate(user.getId());
+        assertThat(jwtUtil.validateToken(token, backfilledUser)).isTrue();
+    }
+
+    @Test
+    public void testLoginMetrics() {
+        double unknownUser = loginCount("unknown_user");
+        double success = loginCount("success");
+        double invalidPassword = loginCount("invalid_password");
+
+        RegisterRequest registerRequest = new RegisterRequest();
+        registerRequest.setUsername("testuser");
+        registerRequest.setPassword("SecurePass123");
+        restTemplate.exchange(
+                "/register",
+                HttpMethod.POST,
+                new HttpEntity<>(registerRequest),
+                new ParameterizedTypeReference<ApiResponse<SuccessResponse>>() {}
+        );
+
+        LoginRequest loginRequest = new LoginRequest();
+        loginRequest.setUsername("testuser");
+        loginRequest.setPassword("SecurePass123");
+        restTemplate.exchange("/login", HttpMethod.POST, new HttpEntity<>(loginRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {});
+        loginRequest.setPassword("WrongPass");
+        restTemplate.exchange("/login", HttpMethod.POST, new HttpEntity<>(loginRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {});
+        loginRequest.setUsername("nonexistentuser");
+        restTemplate.exchange("/login", HttpMethod.POST, new HttpEntity<>(loginRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {});
+
+        assertThat(loginCount("success")).isEqualTo(success + 1);
+        assertThat(loginCount("invalid_password")).isEqualTo(invalidPassword + 1);
+        assertThat(loginCount("unknown_user")).isEqualTo(unknownUser + 1);
+        assertThat(meterRegistry.get("password.bcrypt").tag("operation", "verify").timer().count()).isGreaterThanOrEqualTo(2);
+        assertThat(meterRegistry.get("password.vector.stage").tag("stage", "signMatrix").timer().count()).isGreaterThanOrEqualTo(1);
+        assertThat(meterRegistry.get("jwt.sign").timer().count()).isGreaterThanOrEqualTo(1);
+    }
+
+    private double loginCount(String outcome) {
+        return meterRegistry.get("auth.login").tag("outcome", outcome).counter().count();
+    }
 }
@@ -0,0 +1,82 @@
+package com.msinyu.jwtservice;
+
+import com.msinyu.jwtservice.dto.request.LoginRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Integration tests for login rate limiting per username and client address.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+                "login.rate-limit.enabled=true",
+                "login.rate-limit.username.capacity=2",
+                "login.rate-limit.username.refill-interval=60000",
+                "login.rate-limit.address.capacity=4",
+                "login.rate-limit.address.refill-interval=60000"
+        })
+@ActiveProfiles("test")
+@TestPropertySource(locations = "classpath:application-test.properties")
+public class LoginRateLimitTests {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    public void testLoginAttemptsAreLimitedBeforeUserLookup() {
+        for (int i = 0; i < 2; i++) {
+            assertThat(login("ratelimited").getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        }
+        double unknownUsers = loginCount("unknown_user");
+
+        ResponseEntity<String> limited = login("ratelimited");
+        assertThat(limited.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        assertThat(Long.parseLong(limited.getHeaders().getFirst(HttpHeaders.RETRY_AFTER))).isBetween(1L, 60L);
+        assertThat(limited.getBody()).contains("Too many login attempts");
+        assertThat(loginCount("unknown_user")).isEqualTo(unknownUsers);
+        assertThat(loginCount("rate_limited")).isEqualTo(1);
+
+        // Another username still has attempts left, until the address bucket runs out
+        assertThat(login("otheruser").getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        assertThat(login("thirduser").getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        assertThat(loginCount("unknown_user")).isEqualTo(unknownUsers + 1);
+    }
+
+    @Test
+    public void testOversizedLoginBodyIsRejected() {
+        LoginRequest loginRequest = new LoginRequest();
+        loginRequest.setUsername("oversized");
+        loginRequest.setPassword(String.join("", Collections.nCopies(8192, "x")));
+        ResponseEntity<String> response = restTemplate.postForEntity("/api/auth/login", new HttpEntity<>(loginRequest), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+        assertThat(response.getBody()).contains("Request body too large");
+    }
+
+    private ResponseEntity<String> login(String username) {
+        LoginRequest loginRequest = new LoginRequest();
+        loginRequest.setUsername(username);
+        loginRequest.setPassword("SecurePass123");
+        return restTemplate.postForEntity("/api/auth/login", new HttpEntity<>(loginRequest), String.class);
+    }
+
+    private double loginCount(String outcome) {
+        return meterRegistry.get("auth.login").tag("outcome", outcome).counter().count();
+    }
+}
@@ -0,0 +1,102 @@
+package com.msinyu.jwtservice;
+
+import com.msinyu.jwtservice.dto.request.LoginRequest;
+import com.msinyu.jwtservice.dto.request.RegisterRequest;
+import com.msinyu.jwtservice.dto.response.ApiResponse;
+import com.msinyu.jwtservice.dto.response.SuccessResponse;
+import com.msinyu.jwtservice.dto.response.TokenResponse;
+import com.msinyu.jwtservice.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Integration tests for request handling on virtual threads.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "spring.threads.virtual.enabled=true")
+@ActiveProfiles("test")
+@TestPropertySource(locations = "classpath:application-test.properties")
+public class VirtualThreadTests {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ServletWebServerApplicationContext applicationContext;
+
+    @Autowired
+    private ExecutorService virtualThreadExecutor;
+
+    @Autowired
+    @Qualifier("passwordContinuationExecutor")
+    private Executor passwordContinuationExecutor;
+
+    @BeforeEach
+    public void setUp() {
+        userRepository.deleteAll();
+    }
+
+    @Test
+    public void testRequestsRunOnVirtualThreads() throws Exception {
+        TomcatWebServer webServer = (TomcatWebServer) applicationContext.getWebServer();
+        assertThat(webServer.getTomcat().getConnector().getProtocolHandler().getExecutor()).isSameAs(virtualThreadExecutor);
+
+        CompletableFuture<Boolean> continuation = new CompletableFuture<>();
+        passwordContinuationExecutor.execute(() -> continuation.complete(Thread.currentThread().isVirtual()));
+        assertThat(continuation.get()).isTrue();
+
+        RegisterRequest registerRequest = new RegisterRequest();
+        registerRequest.setUsername("testuser");
+        registerRequest.setPassword("SecurePass123");
+        ResponseEntity<ApiResponse<SuccessResponse>> registerResponse = restTemplate.exchange(
+                "/api/auth/register",
+                HttpMethod.POST,
+                new HttpEntity<>(registerRequest),
+                new ParameterizedTypeReference<ApiResponse<SuccessResponse>>() {}
+        );
+        assertThat(registerResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+        ResponseEntity<ApiResponse<SuccessResponse>> changePasswordResponse = restTemplate.exchange(
+                "/api/auth/change-password?username=testuser&newPassword=NewSecurePass456",
+                HttpMethod.POST,
+                new HttpEntity<>(null, new HttpHeaders()),
+                new ParameterizedTypeReference<ApiResponse<SuccessResponse>>() {}
+        );
+        assertThat(changePasswordResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        LoginRequest loginRequest = new LoginRequest();
+        loginRequest.setUsername("testuser");
+        loginRequest.setPassword("NewSecurePass456");
+        ResponseEntity<ApiResponse<TokenResponse>> loginResponse = restTemplate.exchange(
+                "/api/auth/login",
+                HttpMethod.POST,
+                new HttpEntity<>(loginRequest),
+                new ParameterizedTypeReference<ApiResponse<TokenResponse>>() {}
+        );
+        assertThat(loginResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(loginResponse.getBody().getData().getToken()).isNotBlank();
+    }
+}
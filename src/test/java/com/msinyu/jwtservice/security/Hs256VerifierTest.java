@@ -0,0 +1,148 @@
+package com.msinyu.jwtservice.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class Hs256VerifierTest {
+
+    private static final SecretKeySpec KEY = key("5f2b7c1e9a0d4c3b8e6f1a2d7c9b0e4f5a6d3c2b1e0f9a8d7c6b5a4f3e2d1c0b");
+    private static final SecretKeySpec OTHER_KEY = key("0b1c2d3e4f5a6b7c8d9e0f1a2b3c4d5e6f7a8b9c0d1e2f3a4b5c6d7e8f9a0b1c");
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_.=+/ ";
+    private static final long FUTURE = 4_102_444_800_000L;
+    private static final long ISSUED_AT = 1_700_000_000_000L;
+
+    @Test
+    public void testMatchesJjwtOnFuzzCorpus() {
+        Random random = new Random(42);
+        List<String> corpus = new ArrayList<>();
+        for (String token : seedTokens()) {
+            corpus.add(token);
+            for (int i = 0; i < 2_000; i++) {
+                corpus.add(mutate(token, random));
+            }
+        }
+
+        int accepted = 0;
+        for (String token : corpus) {
+            Jws<Claims> expected = parseWithJjwt(token);
+            Claims actual = Hs256Verifier.verify(token, UnverifiedToken.parse(token), KEY, System.currentTimeMillis());
+            assertThat(actual != null).as(token).isEqualTo(expected != null);
+            if (actual != null) {
+                accepted++;
+                Claims claims = expected.getBody();
+                assertThat(actual.getSubject()).isEqualTo(claims.getSubject());
+                assertThat(actual.getIssuedAt()).isEqualTo(claims.getIssuedAt());
+                assertThat(actual.getExpiration()).isEqualTo(claims.getExpiration());
+                assertThat(actual.get("role", String.class)).isEqualTo(claims.get("role", String.class));
+                assertThat(actual).isEqualTo(claims);
+                assertThat(claims).isEqualTo(actual);
+            }
+        }
+        assertThat(accepted).isGreaterThanOrEqualTo(3);
+    }
+
+    @Test
+    public void testRejectsOtherAlgorithmsAndMalleableSignatures() {
+        String hs384 = Jwts.builder().setSubject("testuser").signWith(SignatureAlgorithm.HS384, KEY.getEncoded()).compact();
+        assertThat(Hs256Verifier.verify(hs384, UnverifiedToken.parse(hs384), KEY, System.currentTimeMillis())).isNull();
+
+        String token = Jwts.builder().setSubject("testuser").signWith(SignatureAlgorithm.HS256, KEY).compact();
+        assertThat(Hs256Verifier.verify(token, UnverifiedToken.parse(token), KEY, System.currentTimeMillis())).isNotNull();
+        String padded = token + "=";
+        assertThat(Hs256Verifier.verify(padded, UnverifiedToken.parse(padded), KEY, System.currentTimeMillis())).isNull();
+        char last = token.charAt(token.length() - 1);
+        String trailingBits = token.substring(0, token.length() - 1) + ALPHABET.charAt(ALPHABET.indexOf(last) ^ 1);
+        assertThat(Hs256Verifier.verify(trailingBits, UnverifiedToken.parse(trailingBits), KEY, System.currentTimeMillis())).isNull();
+    }
+
+    /**
+     * Signed tokens covering valid, expired, premature and oddly shaped claims. All times are
+     * fixed, so the corpus is the same on every run.
+     */
+    private static List<String> seedTokens() {
+        List<String> tokens = new ArrayList<>();
+        tokens.add(Jwts.builder().setHeaderParam("kid", "1").setSubject("testuser")
+                .setIssuedAt(new Date(ISSUED_AT)).setExpiration(new Date(FUTURE)).signWith(SignatureAlgorithm.HS256, KEY).compact());
+        tokens.add(Jwts.builder().setSubject("te\"st\u00fc").claim("role", "admin")
+                .claim("nested", Collections.singletonMap("sub", "other")).signWith(SignatureAlgorithm.HS256, KEY).compact());
+        tokens.add(Jwts.builder().setSubject("testuser").setNotBefore(new Date(0)).setExpiration(new Date(FUTURE))
+                .signWith(SignatureAlgorithm.HS256, KEY).compact());
+        tokens.add(Jwts.builder().setSubject("testuser").setExpiration(new Date(1_000_000L))
+                .signWith(SignatureAlgorithm.HS256, KEY).compact());
+        tokens.add(Jwts.builder().setSubject("testuser").setNotBefore(new Date(FUTURE))
+                .signWith(SignatureAlgorithm.HS256, KEY).compact());
+        tokens.add(Jwts.builder().setSubject("testuser").claim("exp", -1)
+                .signWith(SignatureAlgorithm.HS256, KEY).compact());
+        tokens.add(Jwts.builder().setSubject("testuser").setExpiration(new Date(FUTURE))
+                .signWith(SignatureAlgorithm.HS256, OTHER_KEY).compact());
+        return tokens;
+    }
+
+    /**
+     * Applies one random edit: a substitution, insertion, deletion, truncation or segment swap.
+     */
+    private static String mutate(String token, Random random) {
+        int position = random.nextInt(token.length());
+        char c = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        switch (random.nextInt(5)) {
+            case 0:
+                return token.substring(0, position) + c + token.substring(position + 1);
+            case 1:
+                return token.substring(0, position) + c + token.substring(position);
+            case 2:
+                return token.substring(0, position) + token.substring(position + 1);
+            case 3:
+                return token.substring(0, position);
+            default:
+                String[] segments = token.split("\\.", -1);
+                return segments[1] + "." + segments[0] + "." + segments[segments.length - 1];
+        }
+    }
+
+    /**
+     * Verifies a token with jjwt, additionally requiring what the verifier deliberately enforces
+     * on top of it: the HS256 algorithm and a canonical signature encoding.
+     */
+    private static Jws<Claims> parseWithJjwt(String token) {
+        Jws<Claims> jws;
+        try {
+            jws = Jwts.parser().setSigningKey(KEY).parseClaimsJws(token);
+        } catch (RuntimeException e) {
+            // jjwt 0.9.1 also fails on some malformed input with unchecked exceptions of its own
+            return null;
+        }
+        String signature = jws.getSignature();
+        boolean canonical = token.endsWith("." + signature) && isCanonicalBase64Url(signature);
+        return canonical && "HS256".equals(jws.getHeader().getAlgorithm()) ? jws : null;
+    }
+
+    /**
+     * Checks whether a string is unpadded Base64url that re-encodes to itself. jjwt's decoder
+     * also accepts characters of the standard alphabet, which are not canonical either.
+     */
+    private static boolean isCanonicalBase64Url(String value) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Base64.getUrlDecoder().decode(value)).equals(value);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static SecretKeySpec key(String hex) {
+        return new SecretKeySpec(hex.getBytes(StandardCharsets.US_ASCII), "HmacSHA256");
+    }
+}
@@ -0,0 +1,28 @@
+package com.msinyu.jwtservice.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SigningKeyCacheTest {
+
+    @Test
+    public void testServesKeyOnlyForMatchingVersion() {
+        SigningKeyCache cache = new SigningKeyCache(100, 60000, new SimpleMeterRegistry());
+        cache.get(1L, "testuser", "hash-1", () -> "key-1".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(cache.getIfPresent(1L, "testuser", SigningKeyCache.keyVersion("hash-1"))).isNotNull();
+        assertThat(cache.getIfPresent(1L, "otheruser", SigningKeyCache.keyVersion("hash-1"))).isNull();
+
+        // A token issued after a password change on another replica misses the stale entry
+        assertThat(cache.getIfPresent(1L, "testuser", SigningKeyCache.keyVersion("hash-2"))).isNull();
+
+        // Loading the user replaces the stale entry, after which tokens of the old version miss
+        cache.get(1L, "testuser", "hash-2", () -> "key-2".getBytes(StandardCharsets.UTF_8));
+        assertThat(cache.getIfPresent(1L, "testuser", SigningKeyCache.keyVersion("hash-1"))).isNull();
+        assertThat(cache.getIfPresent(1L, "testuser", SigningKeyCache.keyVersion("hash-2"))).isNotNull();
+    }
+}
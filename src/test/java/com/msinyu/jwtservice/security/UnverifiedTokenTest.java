@@ -0,0 +1,65 @@
+package com.msinyu.jwtservice.security;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UnverifiedTokenTest {
+
+    @Test
+    public void testParsesSignedToken() {
+        String token = Jwts.builder()
+                .setHeaderParam("kid", "42")
+                .setSubject("testuser")
+                .setExpiration(new Date(4_102_444_800_000L))
+                .signWith(SignatureAlgorithm.HS256, "secret".getBytes(StandardCharsets.UTF_8))
+                .compact();
+
+        UnverifiedToken unverified = UnverifiedToken.parse(token);
+        assertThat(unverified).isNotNull();
+        assertThat(unverified.getAlgorithm()).isEqualTo("HS256");
+        assertThat(unverified.getKeyId()).isEqualTo("42");
+        assertThat(unverified.getSubject()).isEqualTo("testuser");
+        assertThat(unverified.getExpiration()).isEqualTo(4_102_444_800L);
+        assertThat(unverified.isExpired(System.currentTimeMillis())).isFalse();
+        assertThat(unverified.isExpired(4_102_444_801_000L)).isTrue();
+    }
+
+    @Test
+    public void testSkipsNestedValuesAndUnescapesStrings() {
+        String token = token("{\"alg\":\"ES256\",\"x\":{\"kid\":\"inner\"},\"kid\":\"k\\u0031\"}",
+                "{\"roles\":[\"a\",{\"sub\":\"x\"}],\"sub\":\"te\\\"st\",\"exp\":1.5e3}");
+
+        UnverifiedToken unverified = UnverifiedToken.parse(token);
+        assertThat(unverified).isNotNull();
+        assertThat(unverified.getAlgorithm()).isEqualTo("ES256");
+        assertThat(unverified.getKeyId()).isEqualTo("k1");
+        assertThat(unverified.getSubject()).isEqualTo("te\"st");
+        assertThat(unverified.getExpiration()).isEqualTo(1500L);
+    }
+
+    @Test
+    public void testRejectsMalformedTokens() {
+        assertThat(UnverifiedToken.parse(null)).isNull();
+        assertThat(UnverifiedToken.parse("")).isNull();
+        assertThat(UnverifiedToken.parse("a.b")).isNull();
+        assertThat(UnverifiedToken.parse("a.b.c.d")).isNull();
+        assertThat(UnverifiedToken.parse(".e30.sig")).isNull();
+        assertThat(UnverifiedToken.parse("e30.e30!.sig")).isNull();
+        assertThat(UnverifiedToken.parse(token("{\"alg\":\"HS256\"", "{}"))).isNull();
+        assertThat(UnverifiedToken.parse(token("{\"alg\":\"HS256\"}", "{\"sub\":\"a\"}x"))).isNull();
+        assertThat(UnverifiedToken.parse(token("[]", "{}"))).isNull();
+    }
+
+    private static String token(String header, String payload) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(header.getBytes(StandardCharsets.UTF_8)) + "."
+                + encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + ".sig";
+    }
+}
@@ -0,0 +1,102 @@
+package com.msinyu.jwtservice.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class EncryptionUtilTest {
+
+    private static final String PASSWORD = "changeit";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testRotatedKeyStillDecrypts() throws Exception {
+        String keystore = keystore(generateKey(), generateKey());
+        EncryptionUtil before = new EncryptionUtil(keystore, "PKCS12", PASSWORD, "key-1", "");
+        EncryptionUtil after = new EncryptionUtil(keystore, "PKCS12", PASSWORD, "key-2", "");
+
+        String ciphertext = before.encrypt("secret");
+        assertThat(after.decrypt(ciphertext)).isEqualTo("secret");
+        assertThat(before.isEncryptedWithActiveKey(ciphertext, 0)).isTrue();
+        assertThat(after.isEncryptedWithActiveKey(ciphertext, 0)).isFalse();
+        assertThat(after.isEncryptedWithActiveKey(after.encrypt("secret"), 0)).isTrue();
+
+        ByteBuffer plaintext = ByteBuffer.wrap("secret".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer encrypted = ByteBuffer.allocate(before.encryptedLength(plaintext.remaining()));
+        before.encrypt(plaintext, encrypted);
+        encrypted.flip();
+        ByteBuffer decrypted = ByteBuffer.allocate(16);
+        after.decrypt(encrypted, decrypted);
+        assertThat(new String(decrypted.array(), 0, decrypted.position(), StandardCharsets.UTF_8)).isEqualTo("secret");
+    }
+
+    @Test
+    public void testCiphertextWithoutHeaderUsesLegacyKey() throws Exception {
+        SecretKey legacy = generateKey();
+        String keystore = keystore(legacy, generateKey());
+        String ciphertext = legacyCiphertext(legacy, "secret");
+
+        EncryptionUtil withLegacy = new EncryptionUtil(keystore, "PKCS12", PASSWORD, "key-2", "key-1");
+        assertThat(withLegacy.decrypt(ciphertext)).isEqualTo("secret");
+        assertThat(withLegacy.isEncryptedWithActiveKey(ciphertext, 0)).isFalse();
+
+        EncryptionUtil withoutLegacy = new EncryptionUtil(keystore, "PKCS12", PASSWORD, "key-2", "");
+        assertThatThrownBy(() -> withoutLegacy.decrypt(ciphertext)).isInstanceOf(Exception.class);
+    }
+
+    private SecretKey generateKey() throws Exception {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        return keyGen.generateKey();
+    }
+
+    /**
+     * Writes a PKCS12 keystore holding the keys under aliases key-1 and key-2.
+     */
+    private String keystore(SecretKey key1, SecretKey key2) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        KeyStore.PasswordProtection protection = new KeyStore.PasswordProtection(PASSWORD.toCharArray());
+        keyStore.setEntry("key-1", new KeyStore.SecretKeyEntry(key1), protection);
+        keyStore.setEntry("key-2", new KeyStore.SecretKeyEntry(key2), protection);
+
+        Path path = tempDir.resolve("keystore.p12");
+        try (OutputStream out = Files.newOutputStream(path)) {
+            keyStore.store(out, PASSWORD.toCharArray());
+        }
+        return path.toString();
+    }
+
+    /**
+     * Encrypts the way EncryptionUtil did before ciphertexts carried a header.
+     */
+    private String legacyCiphertext(SecretKey key, String plaintext) throws Exception {
+        byte[] iv = new byte[12];
+        new SecureRandom().nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+        byte[] encrypted = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+
+        byte[] encryptedWithIv = new byte[iv.length + encrypted.length];
+        System.arraycopy(iv, 0, encryptedWithIv, 0, iv.length);
+        System.arraycopy(encrypted, 0, encryptedWithIv, iv.length, encrypted.length);
+        return Base64.getEncoder().encodeToString(encryptedWithIv);
+    }
+}
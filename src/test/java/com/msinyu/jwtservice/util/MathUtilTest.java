@@ -65,4 +65,45 @@ public class MathUtilTest {
         String decryptedBinary = encryptionUtil.decrypt(encryptedBinary);
         assertThat(decryptedBinary).matches("[01;]+");
     }
+
+    @Test
+    public void testSignMatrixMatchesStagedPipeline() throws Exception {
+        String[] inputs = {
+                sampleInput,
+                "$2a$12$R9h/cIPz0gi.URNNX3kh2OPST9/PgBkqquzi.Ss7KIUgO2t0jWMUW",
+                "x",
+                "a much longer input that exceeds the width of a single matrix row by a good margin, "
+                        + "so that rows start at different offsets into the input bytes"
+        };
+        for (String input : inputs) {
+            SecureMatrix secureMatrix = mathUtil.generateSecureMatrix(input);
+            SecureMatrix transformedMatrix = mathUtil.nonLinearTransform(secureMatrix);
+            SecureMatrix derivativeMatrix = mathUtil.calculateDerivative(transformedMatrix);
+            String staged = encryptionUtil.decrypt(mathUtil.matrixToBinaryArray(derivativeMatrix));
+
+            String fused = SignMatrixReference.of(input);
+            assertThat(fused).isEqualTo(staged);
+
+            byte[] packed = new byte[MathUtil.PACKED_SIGN_MATRIX_LENGTH];
+            mathUtil.writePackedSignMatrix(input.getBytes(), packed, 0);
+            assertThat(unpack(packed)).isEqualTo(staged);
+        }
+    }
+
+    /**
+     * Expands a packed sign matrix back to row-delimited '0'/'1' characters.
+     */
+    private static String unpack(byte[] packed) {
+        int rows = packed[0] & 0xFF;
+        int cols = packed[1] & 0xFF;
+        StringBuilder binary = new StringBuilder(rows * (cols + 1));
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                int bit = i * cols + j;
+                binary.append((packed[2 + (bit >>> 3)] & (0x80 >>> (bit & 7))) != 0 ? '1' : '0');
+            }
+            binary.append(';');
+        }
+        return binary.toString();
+    }
 }
@@ -0,0 +1,75 @@
+package com.msinyu.jwtservice.util;
+
+import com.msinyu.jwtservice.util.secure.SecureMatrix;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.Deflater;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@TestPropertySource(locations = "classpath:application-test.properties")
+public class PasswordVectorCodecTest {
+
+    @Autowired
+    private PasswordVectorCodec passwordVectorCodec;
+
+    @Autowired
+    private MathUtil mathUtil;
+
+    private String sampleHash = "$2a$12$R9h/cIPz0gi.URNNX3kh2OPST9/PgBkqquzi.Ss7KIUgO2t0jWMUW";
+
+    @Test
+    public void testEncodeUsesCompactFormat() throws Exception {
+        String vector = passwordVectorCodec.encode(sampleHash);
+
+        assertThat(vector).startsWith(PasswordVectorCodec.V2_PREFIX);
+        assertThat(passwordVectorCodec.isCurrent(vector)).isTrue();
+        assertThat(vector.length()).isLessThan(4096);
+
+        byte[] packed = passwordVectorCodec.decode(vector);
+        assertThat(packed[0] & 0xFF).isEqualTo(127);
+        assertThat(packed[1] & 0xFF).isEqualTo(127);
+        assertThat(packed).hasSize(MathUtil.PACKED_SIGN_MATRIX_LENGTH);
+    }
+
+    @Test
+    public void testLegacyVectorDecodesToSamePackedMatrix() throws Exception {
+        String legacy = legacyVector(sampleHash);
+        assertThat(passwordVectorCodec.isCurrent(legacy)).isFalse();
+
+        byte[] fromLegacy = passwordVectorCodec.decode(legacy);
+        byte[] fromCurrent = passwordVectorCodec.decode(passwordVectorCodec.encode(sampleHash));
+        assertThat(fromLegacy).isEqualTo(fromCurrent);
+
+        String migrated = passwordVectorCodec.migrate(legacy);
+        assertThat(passwordVectorCodec.isCurrent(migrated)).isTrue();
+        assertThat(passwordVectorCodec.decode(migrated)).isEqualTo(fromCurrent);
+    }
+
+    /**
+     * Builds a vector the way it was stored before the compact format existed.
+     */
+    private String legacyVector(String passwordHash) throws Exception {
+        SecureMatrix secureMatrix = mathUtil.generateSecureMatrix(passwordHash);
+        SecureMatrix transformedMatrix = mathUtil.nonLinearTransform(secureMatrix);
+        SecureMatrix derivativeMatrix = mathUtil.calculateDerivative(transformedMatrix);
+        String encryptedBinary = mathUtil.matrixToBinaryArray(derivativeMatrix);
+
+        byte[] input = encryptedBinary.getBytes(StandardCharsets.UTF_8);
+        byte[] output = new byte[input.length];
+        Deflater deflater = new Deflater();
+        deflater.setInput(input);
+        deflater.finish();
+        deflater.deflate(output);
+        deflater.end();
+        return Base64.getEncoder().encodeToString(output);
+    }
+}
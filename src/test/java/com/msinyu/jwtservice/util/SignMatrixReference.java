@@ -0,0 +1,74 @@
+package com.msinyu.jwtservice.util;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.msinyu.jwtservice.util.MathUtil.MATRIX_SIZE;
+import static com.msinyu.jwtservice.util.MathUtil.SIGN_MATRIX_SIZE;
+
+/**
+ * Single-pass reference of the legacy sign matrix: the row-delimited '0'/'1' string that
+ * {@link MathUtil#matrixToBinaryArray} encrypts, written without building any matrix.
+ * Used to check the staged and packed encoders against each other and to benchmark them.
+ */
+final class SignMatrixReference {
+
+    static final int LENGTH = SIGN_MATRIX_SIZE * (SIGN_MATRIX_SIZE + 1);
+
+    private static final double[] LOG_TABLE = new double[256];
+
+    static {
+        for (int b = 0; b < LOG_TABLE.length; b++) {
+            LOG_TABLE[b] = Math.log(1 + b / 255.0);
+        }
+    }
+
+    private SignMatrixReference() {
+    }
+
+    /**
+     * Writes the row-delimited '0'/'1' sign matrix of the derivative of the transformed input.
+     *
+     * @param inputBytes Input bytes.
+     * @param out        Output buffer of at least {@link #LENGTH} bytes.
+     * @return Number of bytes written.
+     */
+    static int write(byte[] inputBytes, byte[] out) {
+        int n = inputBytes.length;
+        int pos = 0;
+        int upper = 0;
+        int lower = MATRIX_SIZE % n;
+        for (int i = 0; i < SIGN_MATRIX_SIZE; i++) {
+            double previous = LOG_TABLE[inputBytes[lower] & 0xFF] - LOG_TABLE[inputBytes[upper] & 0xFF];
+            for (int j = 1; j < MATRIX_SIZE; j++) {
+                if (++upper == n) {
+                    upper = 0;
+                }
+                if (++lower == n) {
+                    lower = 0;
+                }
+                double current = LOG_TABLE[inputBytes[lower] & 0xFF] - LOG_TABLE[inputBytes[upper] & 0xFF];
+                out[pos++] = current - previous >= 0 ? (byte) '1' : (byte) '0';
+                previous = current;
+            }
+            out[pos++] = ';';
+            if (++upper == n) {
+                upper = 0;
+            }
+            if (++lower == n) {
+                lower = 0;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Returns the row-delimited '0'/'1' sign matrix of an input string.
+     *
+     * @param input Input string (e.g., password hash).
+     * @return Sign matrix string.
+     */
+    static String of(String input) {
+        byte[] out = new byte[LENGTH];
+        return new String(out, 0, write(input.getBytes(), out), StandardCharsets.US_ASCII);
+    }
+}
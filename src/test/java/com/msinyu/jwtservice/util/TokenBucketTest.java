@@ -0,0 +1,53 @@
+package com.msinyu.jwtservice.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TokenBucketTest {
+
+    @Test
+    public void testBurstThenRefill() {
+        TokenBucket bucket = new TokenBucket(3, 1_000, 0);
+        assertThat(bucket.tryTake(0)).isZero();
+        assertThat(bucket.tryTake(0)).isZero();
+        assertThat(bucket.tryTake(0)).isZero();
+        assertThat(bucket.tryTake(0)).isEqualTo(1_000);
+        assertThat(bucket.tryTake(400)).isEqualTo(600);
+        assertThat(bucket.tryTake(1_000)).isZero();
+        assertThat(bucket.tryTake(1_000)).isEqualTo(1_000);
+
+        // Refills up to capacity only
+        assertThat(bucket.tryTake(100_000)).isZero();
+        assertThat(bucket.tryTake(100_000)).isZero();
+        assertThat(bucket.tryTake(100_000)).isZero();
+        assertThat(bucket.tryTake(100_000)).isPositive();
+    }
+
+    @Test
+    public void testConcurrentTakesNeverOverAdmit() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1_000, TimeUnit.HOURS.toNanos(1), System.nanoTime());
+        AtomicInteger taken = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch done = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    if (bucket.tryTake(System.nanoTime()) == 0) {
+                        taken.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            });
+        }
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        executor.shutdown();
+        assertThat(taken.get()).isEqualTo(1_000);
+    }
+}